@@ -0,0 +1,123 @@
+package benchmark;
+
+import model.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the Shunter operations and the lookups of a train for trains from 10 to 1,000,000 wagons.
+ * The yard has a passenger train and a freight train, passengerPercentage decides how the wagons
+ * are divided over the two. Every operation is done on both trains, an operation that changes
+ * a train is undone in the same invocation, so the trains keep their length during a run.
+ * Run with the gc profiler (see TrainsBenchmarks) to see the allocation rate as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShunterBenchmark {
+
+    @Param({"10", "1000", "100000", "1000000"})
+    private int wagons;
+
+    @Param({"0", "50", "100"})
+    private int passengerPercentage;
+
+    private Train[] trains;
+    private Train spareTrain;
+    private Wagon[] middleWagons;
+    private Wagon[] extraWagons;
+
+    @Setup(Level.Trial)
+    public void makeTrains() {
+        int passengerWagons = (int) ((long) wagons * passengerPercentage / 100);
+        Train passengerTrain = makeTrain(1, passengerWagons, true);
+        Train freightTrain = makeTrain(2, wagons - passengerWagons, false);
+        trains = passengerTrain.hasNoWagons() ? new Train[]{freightTrain}
+                : freightTrain.hasNoWagons() ? new Train[]{passengerTrain}
+                : new Train[]{passengerTrain, freightTrain};
+
+        spareTrain = new Train(new Locomotive(3, wagons + 2), "Kijfhoek", "Kijfhoek");
+        middleWagons = new Wagon[trains.length];
+        extraWagons = new Wagon[trains.length];
+        for (int t = 0; t < trains.length; t++) {
+            middleWagons[t] = trains[t].getWagonOnPosition((trains[t].getNumberOfWagons() + 1) / 2);
+            extraWagons[t] = trains[t].isPassengerTrain()
+                    ? new PassengerWagon(-1 - t, 80)
+                    : new FreightWagon(-1 - t, 60);
+        }
+    }
+
+    private static Train makeTrain(int locNumber, int numberOfWagons, boolean passengers) {
+        // the locomotive has room for the extra wagon the benchmarks hook on
+        Train train = new Train(new Locomotive(locNumber, numberOfWagons + 2), "Rotterdam", "Duisburg");
+        for (int w = 0; w < numberOfWagons; w++) {
+            int wagonId = locNumber * 10_000_000 + w;
+            Shunter.hookWagonOnTrainRear(train, passengers ? new PassengerWagon(wagonId, 80) : new FreightWagon(wagonId, 60));
+        }
+        return train;
+    }
+
+    @Benchmark
+    public boolean hookWagonOnTrainRear() {
+        boolean done = true;
+        for (int t = 0; t < trains.length; t++) {
+            done &= Shunter.hookWagonOnTrainRear(trains[t], extraWagons[t]);
+            done &= Shunter.detachOneWagon(trains[t], extraWagons[t]);
+        }
+        return done;
+    }
+
+    @Benchmark
+    public boolean hookWagonOnTrainFront() {
+        boolean done = true;
+        for (int t = 0; t < trains.length; t++) {
+            done &= Shunter.hookWagonOnTrainFront(trains[t], extraWagons[t]);
+            done &= Shunter.detachOneWagon(trains[t], extraWagons[t]);
+        }
+        return done;
+    }
+
+    @Benchmark
+    public boolean moveAllFromTrain() {
+        boolean done = true;
+        for (int t = 0; t < trains.length; t++) {
+            done &= Shunter.moveAllFromTrain(trains[t], spareTrain, middleWagons[t]);
+            done &= Shunter.moveAllFromTrain(spareTrain, trains[t], middleWagons[t]);
+        }
+        return done;
+    }
+
+    @Benchmark
+    public boolean moveOneWagon() {
+        boolean done = true;
+        for (Train train : trains) {
+            // the wagon goes back on the rear, so the wagon in the middle is looked up again every time
+            Wagon wagon = train.getWagonOnPosition((train.getNumberOfWagons() + 1) / 2);
+            done &= Shunter.moveOneWagon(train, spareTrain, wagon);
+            done &= Shunter.moveOneWagon(spareTrain, train, wagon);
+        }
+        return done;
+    }
+
+    @Benchmark
+    public int getPositionOfWagon() {
+        int positions = 0;
+        for (int t = 0; t < trains.length; t++) {
+            positions += trains[t].getPositionOfWagon(middleWagons[t].getWagonId());
+        }
+        return positions;
+    }
+
+    @Benchmark
+    public int getWagonOnPosition() {
+        int wagonIds = 0;
+        for (Train train : trains) {
+            wagonIds += train.getWagonOnPosition((train.getNumberOfWagons() + 1) / 2).getWagonId();
+        }
+        return wagonIds;
+    }
+}
@@ -0,0 +1,61 @@
+package controller;
+
+import model.*;
+
+/**
+ * Compares the memory that is used by a fleet of linked trains with the memory of the same fleet
+ * stored in compact trains. The number of trains and wagons per train can be passed as arguments.
+ */
+public class MemoryBenchmark {
+
+    public static void main(String[] args) {
+        int numberOfTrains = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int wagonsPerTrain = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        long wagons = (long) numberOfTrains * wagonsPerTrain;
+
+        long before = usedMemory();
+        Train[] linkedFleet = new Train[numberOfTrains];
+        for (int t = 0; t < numberOfTrains; t++) {
+            linkedFleet[t] = new Train(new Locomotive(t, wagonsPerTrain), "Amsterdam", "Berlin");
+            for (int w = 0; w < wagonsPerTrain; w++) {
+                Shunter.hookWagonOnTrainRear(linkedFleet[t], newWagon(t, w));
+            }
+        }
+        long linked = usedMemory() - before;
+
+        before = usedMemory();
+        CompactTrain[] compactFleet = new CompactTrain[numberOfTrains];
+        for (int t = 0; t < numberOfTrains; t++) {
+            compactFleet[t] = new CompactTrain(new Locomotive(t, wagonsPerTrain), "Amsterdam", "Berlin", wagonsPerTrain);
+            for (int w = 0; w < wagonsPerTrain; w++) {
+                compactFleet[t].hookWagonOnTrainRear(newWagon(t, w));
+            }
+        }
+        long compact = usedMemory() - before;
+
+        System.out.printf("%d trains with %d wagons each%n", numberOfTrains, wagonsPerTrain);
+        System.out.printf("linked trains:  %,d bytes (%d bytes per wagon)%n", linked, linked / wagons);
+        System.out.printf("compact trains: %,d bytes (%d bytes per wagon)%n", compact, compact / wagons);
+        // this also keeps both fleets reachable until both have been measured
+        long linkedSeats = 0;
+        long compactSeats = 0;
+        for (int t = 0; t < numberOfTrains; t++) {
+            linkedSeats += linkedFleet[t].getNumberOfSeats();
+            compactSeats += compactFleet[t].getNumberOfSeats();
+        }
+        System.out.printf("seats in both fleets: %d / %d%n", linkedSeats, compactSeats);
+    }
+
+    private static Wagon newWagon(int train, int wagon) {
+        int wagonId = train * 1_000_000 + wagon;
+        return train % 2 == 0 ? new PassengerWagon(wagonId, 80) : new FreightWagon(wagonId, 60);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
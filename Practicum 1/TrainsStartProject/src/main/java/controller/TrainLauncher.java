@@ -2,12 +2,20 @@ package controller;
 
 import model.*;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 
 public class TrainLauncher {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        // a yard written by a YardWriter can be passed as argument instead of the trains below
+        if (args.length > 0) {
+            Yard yard = YardReader.read(Paths.get(args[0]));
+            System.out.printf("%d trains with %d wagons read from %s%n", yard.getTrains().size(), yard.getNumberOfWagons(), args[0]);
+            return;
+        }
          List<Wagon> wagonList = new ArrayList<>();
         wagonList.add(new PassengerWagon(3, 100));
         wagonList.add(new PassengerWagon(24, 100));
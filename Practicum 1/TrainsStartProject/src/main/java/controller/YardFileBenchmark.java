@@ -0,0 +1,63 @@
+package controller;
+
+import model.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes a yard of generated trains to a file with a YardWriter, reads it back with a YardReader and prints
+ * how long both took and how large the file is. The number of trains and wagons per train can be passed
+ * as arguments, the default is a yard of 10 million wagons. Every wagon in a yard also has a node in the index
+ * of its train, so give the JVM room for the whole yard up front (-Xms4g -Xmx4g -XX:+UseParallelGC),
+ * otherwise most of the reading time goes to the garbage collector growing the heap.
+ */
+public class YardFileBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int numberOfTrains = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int wagonsPerTrain = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        long wagons = (long) numberOfTrains * wagonsPerTrain;
+        Path file = Files.createTempFile("yard", ".bin");
+        try {
+            long start = System.nanoTime();
+            try (YardWriter writer = new YardWriter(file)) {
+                // a train is written and dropped before the next one is made, so only one train is in memory
+                for (int t = 0; t < numberOfTrains; t++) {
+                    writer.writeTrain(makeTrain(t, wagonsPerTrain));
+                }
+            }
+            long written = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Yard yard = YardReader.read(file);
+            long read = System.nanoTime() - start;
+
+            System.out.printf("%d trains with %d wagons each%n", numberOfTrains, wagonsPerTrain);
+            System.out.printf("file:  %,d bytes (%.1f bytes per wagon)%n", Files.size(file), (double) Files.size(file) / wagons);
+            System.out.printf("write: %.2f s%n", written / 1e9);
+            System.out.printf("read:  %.2f s, %,d wagons in the yard%n", read / 1e9, yard.getNumberOfWagons());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static Train makeTrain(int locNumber, int numberOfWagons) {
+        Train train = new Train(new Locomotive(locNumber, numberOfWagons), "Kijfhoek", "Venlo");
+        Wagon first = newWagon(locNumber, 0);
+        Wagon last = first;
+        for (int w = 1; w < numberOfWagons; w++) {
+            Wagon wagon = newWagon(locNumber, w);
+            last.setNextWagon(wagon);
+            last = wagon;
+        }
+        train.setFirstWagon(first);
+        return train;
+    }
+
+    private static Wagon newWagon(int train, int wagon) {
+        int wagonId = train * 1_000_000 + wagon;
+        return train % 2 == 0 ? new PassengerWagon(wagonId, 80) : new FreightWagon(wagonId, 60);
+    }
+}
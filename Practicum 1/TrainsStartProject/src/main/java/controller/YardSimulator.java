@@ -0,0 +1,252 @@
+package controller;
+
+import model.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Simulates a yard of trains like the ones of the TrainLauncher, in which many dispatchers shunt at the same time
+ * through the ConcurrentShunter. Every dispatcher runs on its own thread, a virtual thread when the JVM has them,
+ * and picks its operations at random from a mix. The wagons to shunt are taken from the snapshots of the trains,
+ * so a dispatcher sometimes picks a wagon that has just left the train, which the Shunter then rejects.
+ * Afterwards it prints the throughput, how long the operations took with and without waiting for the locks,
+ * and the invariants of the yard that were violated, during and after the run. Every violation is a bug,
+ * so the simulator exits with status 1 when it found one and can be used to check a change of the model.
+ * <p>
+ * Arguments: dispatchers, seconds, trains, wagons per train, and the mix of operations, for example
+ * {@code 2000 5 20 1000 moveOne=40,moveAll=5,hook=20,detach=20,lookup=15}.
+ */
+public class YardSimulator {
+    private static final String[] OPERATIONS = {"moveOne", "moveAll", "hook", "detach", "lookup"};
+    private static final int MOVE_ONE = 0;
+    private static final int MOVE_ALL = 1;
+    private static final int HOOK = 2;
+    private static final int DETACH = 3;
+    private static final int LOOKUP = 4;
+
+    private final Yard yard = new Yard();
+    private final Train[] trains;
+    private final int[] mix = new int[OPERATIONS.length];
+    private final AtomicInteger nextWagonId = new AtomicInteger();
+    private final LongAdder[] done = new LongAdder[OPERATIONS.length];
+    private final LongAdder[] rejected = new LongAdder[OPERATIONS.length];
+    private final AtomicLongArray latencies = new AtomicLongArray(ShunterMetrics.LATENCY_BUCKETS);
+    private final LongAdder hooked = new LongAdder();
+    private final LongAdder detached = new LongAdder();
+    private final List<String> violations = new ArrayList<>();
+    private final int initialWagons;
+
+    private YardSimulator(int numberOfTrains, int wagonsPerTrain, String mix) {
+        trains = new Train[numberOfTrains];
+        for (int t = 0; t < numberOfTrains; t++) {
+            // the locomotives have room for a quarter more wagons, so the trains can grow and shrink
+            trains[t] = new Train(new Locomotive(t, wagonsPerTrain + wagonsPerTrain / 4 + 1), "Kijfhoek", "Kijfhoek");
+            for (int w = 0; w < wagonsPerTrain; w++) {
+                Shunter.hookWagonOnTrainRear(trains[t], newWagon(t % 2 == 0));
+            }
+            yard.addTrain(trains[t]);
+            trains[t].getSnapshot();
+        }
+        initialWagons = numberOfTrains * wagonsPerTrain;
+        for (String part : mix.split(",")) {
+            String[] operationAndWeight = part.split("=");
+            int operation = List.of(OPERATIONS).indexOf(operationAndWeight[0].trim());
+            if (operation == -1) {
+                throw new IllegalArgumentException(String.format("Unknown operation %s, use one of %s",
+                        operationAndWeight[0], String.join(", ", OPERATIONS)));
+            }
+            this.mix[operation] = Integer.parseInt(operationAndWeight[1].trim());
+        }
+        for (int o = 0; o < OPERATIONS.length; o++) {
+            done[o] = new LongAdder();
+            rejected[o] = new LongAdder();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int dispatchers = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int numberOfTrains = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int wagonsPerTrain = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+        String mix = args.length > 4 ? args[4] : "moveOne=40,moveAll=5,hook=20,detach=20,lookup=15";
+
+        YardSimulator simulator = new YardSimulator(numberOfTrains, wagonsPerTrain, mix);
+        ShunterMetrics.reset();
+        ShunterMetrics.enable();
+        long start = System.nanoTime();
+        simulator.run(dispatchers, seconds);
+        long elapsed = System.nanoTime() - start;
+        ShunterMetrics.disable();
+        simulator.checkYard();
+        simulator.report(dispatchers, elapsed);
+        if (!simulator.violations.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private void run(int dispatchers, int seconds) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        ExecutorService executor = newExecutor();
+        for (int d = 0; d < dispatchers; d++) {
+            executor.execute(() -> dispatch(end));
+        }
+        executor.shutdown();
+        // the trains are checked while the dispatchers are shunting, using their snapshots
+        while (!executor.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+            for (Train train : trains) {
+                checkSnapshot(train, train.getSnapshot());
+            }
+        }
+    }
+
+    /**
+     * Uses a virtual thread for every dispatcher when the JVM has them (Java 21 and later),
+     * otherwise a platform thread for every dispatcher.
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private void dispatch(long end) {
+        Random random = ThreadLocalRandom.current();
+        int totalWeight = 0;
+        for (int weight : mix) {
+            totalWeight += weight;
+        }
+        while (System.nanoTime() < end) {
+            int pick = random.nextInt(totalWeight);
+            int operation = 0;
+            while (pick >= mix[operation]) {
+                pick -= mix[operation];
+                operation++;
+            }
+            long start = System.nanoTime();
+            boolean accepted = shunt(operation, random);
+            latencies.incrementAndGet(ShunterMetrics.latencyBucket(System.nanoTime() - start));
+            (accepted ? done : rejected)[operation].increment();
+        }
+    }
+
+    private boolean shunt(int operation, Random random) {
+        Train from = trains[random.nextInt(trains.length)];
+        Train to = trains[random.nextInt(trains.length)];
+        TrainSnapshot snapshot = from.getSnapshot();
+        Wagon wagon = snapshot.getNumberOfWagons() == 0 ? null
+                : snapshot.getWagonOnPosition(1 + random.nextInt(snapshot.getNumberOfWagons()));
+        switch (operation) {
+            case MOVE_ONE:
+                return wagon != null && from != to && ConcurrentShunter.moveOneWagon(from, to, wagon);
+            case MOVE_ALL:
+                return wagon != null && from != to && ConcurrentShunter.moveAllFromTrain(from, to, wagon);
+            case HOOK: {
+                boolean passengers = wagon == null ? random.nextBoolean() : wagon instanceof PassengerWagon;
+                boolean hook = random.nextBoolean()
+                        ? ConcurrentShunter.hookWagonOnTrainRear(from, newWagon(passengers))
+                        : ConcurrentShunter.hookWagonOnTrainFront(from, newWagon(passengers));
+                if (hook) {
+                    hooked.increment();
+                }
+                return hook;
+            }
+            case DETACH: {
+                boolean detach = wagon != null && ConcurrentShunter.detachOneWagon(from, wagon);
+                if (detach) {
+                    detached.increment();
+                }
+                return detach;
+            }
+            default:
+                return wagon != null && yard.getPositionOfWagon(wagon.getWagonId()) != -1;
+        }
+    }
+
+    private Wagon newWagon(boolean passengers) {
+        int wagonId = nextWagonId.getAndIncrement();
+        return passengers ? new PassengerWagon(wagonId, 80) : new FreightWagon(wagonId, 60);
+    }
+
+    private void checkSnapshot(Train train, TrainSnapshot snapshot) {
+        if (snapshot.getNumberOfWagons() > train.getEngine().getMaxWagons()) {
+            violation("%s had %d wagons, more than its locomotive can pull", train.getEngine(), snapshot.getNumberOfWagons());
+        }
+        if (snapshot.getNumberOfSeats() > 0 && snapshot.getTotalMaxWeight() > 0) {
+            violation("%s had passenger and freight wagons", train.getEngine());
+        }
+    }
+
+    /**
+     * Checks the whole yard after all dispatchers have stopped.
+     */
+    private void checkYard() {
+        long expected = initialWagons + hooked.sum() - detached.sum();
+        long wagons = 0;
+        for (Train train : trains) {
+            checkSnapshot(train, train.getSnapshot());
+            int position = 0;
+            for (Wagon wagon : train) {
+                position++;
+                if (yard.getTrainOfWagon(wagon.getWagonId()) != train) {
+                    violation("the yard does not know %s is on %s", wagon, train.getEngine());
+                } else if (train.getPositionOfWagon(wagon.getWagonId()) != position) {
+                    violation("the index of %s has %s on the wrong position", train.getEngine(), wagon);
+                }
+            }
+            if (position != train.getNumberOfWagons() || position != train.getSnapshot().getNumberOfWagons()) {
+                violation("%s has %d wagons, but counts %d", train.getEngine(), position, train.getNumberOfWagons());
+            }
+            wagons += position;
+        }
+        if (wagons != expected || yard.getNumberOfWagons() != expected) {
+            violation("the yard has %d wagons, %d are known to the yard, but %d were expected",
+                    wagons, yard.getNumberOfWagons(), expected);
+        }
+    }
+
+    private void violation(String format, Object... arguments) {
+        synchronized (violations) {
+            violations.add(String.format(format, arguments));
+        }
+    }
+
+    private void report(int dispatchers, long elapsed) {
+        long operations = 0;
+        for (int o = 0; o < OPERATIONS.length; o++) {
+            operations += done[o].sum() + rejected[o].sum();
+        }
+        System.out.printf("%d dispatchers, %d trains, %.1f seconds%n", dispatchers, trains.length, elapsed / 1e9);
+        System.out.printf("%,d operations, %,.0f operations per second%n", operations, operations / (elapsed / 1e9));
+        for (int o = 0; o < OPERATIONS.length; o++) {
+            System.out.printf("  %-8s %,12d done %,12d rejected%n", OPERATIONS[o], done[o].sum(), rejected[o].sum());
+        }
+        // the time inside the Shunter leaves out the waiting for the locks of the trains, the difference is contention
+        System.out.printf("latency with waiting:   p50 < %,d ns, p99 < %,d ns%n", percentile(50), percentile(99));
+        ShunterMetrics.Snapshot metrics = ShunterMetrics.snapshot();
+        System.out.printf("latency inside Shunter: p50 < %,d ns, p99 < %,d ns (moveOne)%n",
+                metrics.getLatencyPercentile(ShunterMetrics.Operation.MOVE_ONE, 50),
+                metrics.getLatencyPercentile(ShunterMetrics.Operation.MOVE_ONE, 99));
+        System.out.print(metrics);
+        System.out.printf("%d invariant violations%n", violations.size());
+        violations.stream().distinct().limit(20).forEach(violation -> System.out.println("  " + violation));
+    }
+
+    private long percentile(double percentile) {
+        long[] histogram = new long[latencies.length()];
+        for (int b = 0; b < histogram.length; b++) {
+            histogram[b] = latencies.get(b);
+        }
+        return ShunterMetrics.latencyPercentile(histogram, percentile);
+    }
+}
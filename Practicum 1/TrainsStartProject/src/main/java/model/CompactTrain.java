@@ -0,0 +1,385 @@
+package model;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This class is the blueprint of a train that stores its wagons in parallel arrays of primitives instead of
+ * Wagon objects. Every wagon is a slot in the arrays, the order of the wagons is kept with the index of the
+ * next and previous slot. This costs a few ints per wagon, where a linked Wagon also needs an object header,
+ * two references and a node in the index of its train, so very large fleets fit in far less memory.
+ * <p>
+ * It is an experiment in memory use, not a store the Shunter can work on: it only hooks and detaches
+ * single wagons and checks them with the same rules as the Shunter. A wagon is found by its wagonId
+ * in a hash table of slots. The positions of the wagons are kept in an array that is only made when a position
+ * is asked for; hooking on the rear keeps it up to date, any other change makes it be rebuilt at the next
+ * lookup, which walks the train once.
+ * The wagons themselves are not kept, the iterator and getWagonOnPosition make a new Wagon for a slot when asked.
+ *
+ * @author Abdul, Ferran
+ */
+public class CompactTrain implements Iterable<Wagon> {
+    private static final byte PASSENGER = 1;
+    private static final byte FREIGHT = 2;
+    private static final int NONE = -1;
+
+    private final Locomotive engine;
+    private final String origin;
+    private final String destination;
+
+    private int[] wagonIds;
+    private byte[] kinds;
+    private int[] capacities;
+    private int[] nextSlots;
+    private int[] previousSlots;
+    // the slot of a wagonId plus one, at its hash or a few entries further, or 0 for an empty entry
+    private int[] slotTable;
+    // the positions of the slots and the slots in order of position, null until a position is asked for
+    private int[] positions;
+    private int[] slotsInOrder;
+    private boolean positionsKnown;
+
+    private int firstSlot = NONE;
+    private int lastSlot = NONE;
+    private int freeSlot = NONE;
+    private int usedSlots;
+    private int numberOfWagons;
+    private long numberOfSeats;
+    private long totalMaxWeight;
+
+    public CompactTrain(Locomotive engine, String origin, String destination) {
+        this(engine, origin, destination, 16);
+    }
+
+    /**
+     * @param engine     the locomotive of the train
+     * @param origin     where the train departs
+     * @param destination where the train goes to
+     * @param capacity   the number of wagons the arrays have room for before they have to grow
+     */
+    public CompactTrain(Locomotive engine, String origin, String destination, int capacity) {
+        this.engine = engine;
+        this.origin = origin;
+        this.destination = destination;
+        wagonIds = new int[capacity];
+        kinds = new byte[capacity];
+        capacities = new int[capacity];
+        nextSlots = new int[capacity];
+        previousSlots = new int[capacity];
+        slotTable = new int[tableSize(capacity)];
+    }
+
+    /**
+     * Copies the wagons of a linked train into a compact train.
+     *
+     * @param train the train to copy
+     * @return a compact train with the same engine and wagons
+     */
+    public static CompactTrain of(Train train) {
+        CompactTrain compactTrain = new CompactTrain(train.getEngine(), train.getOrigin(), train.getDestination(),
+                Math.max(1, train.getNumberOfWagons()));
+        for (Wagon wagon : train) {
+            compactTrain.add(wagon, compactTrain.lastSlot);
+        }
+        return compactTrain;
+    }
+
+    /**
+     * @return the Locomotive object
+     */
+    public Locomotive getEngine() {
+        return engine;
+    }
+
+    /**
+     * @return the number of wagons this train has
+     */
+    public int getNumberOfWagons() {
+        return numberOfWagons;
+    }
+
+    /**
+     * @return the number of seats of the whole train
+     */
+    public int getNumberOfSeats() {
+        return (int) numberOfSeats;
+    }
+
+    /**
+     * @return the total weight of the whole set of wagons
+     */
+    public int getTotalMaxWeight() {
+        return (int) totalMaxWeight;
+    }
+
+    /**
+     * Hooks a copy of a wagon on the rear of this train, with the same checks as the Shunter does.
+     *
+     * @param wagon the wagon to copy, only its id, kind and capacity are stored
+     * @return true if the wagon is hooked on the rear of the train
+     */
+    public boolean hookWagonOnTrainRear(Wagon wagon) {
+        if (!isSuitableWagon(wagon) || !Shunter.hasPlaceForOneWagon(engine, numberOfWagons)) {
+            return false;
+        }
+        add(wagon, lastSlot);
+        return true;
+    }
+
+    /**
+     * Hooks a copy of a wagon on the front of this train, with the same checks as the Shunter does.
+     *
+     * @param wagon the wagon to copy, only its id, kind and capacity are stored
+     * @return true if the wagon is hooked on the front of the train
+     */
+    public boolean hookWagonOnTrainFront(Wagon wagon) {
+        if (!isSuitableWagon(wagon) || !Shunter.hasPlaceForOneWagon(engine, numberOfWagons)) {
+            return false;
+        }
+        add(wagon, NONE);
+        return true;
+    }
+
+    /**
+     * Detaches the wagon with the given id from this train.
+     *
+     * @param wagonId the id of the wagon to detach
+     * @return true if the wagon is detached from the train
+     */
+    public boolean detachOneWagon(int wagonId) {
+        int slot = findSlot(wagonId);
+        if (slot == NONE) {
+            return false;
+        }
+        remove(slot);
+        return true;
+    }
+
+    /**
+     * @param wagonId the wagonId of the wagon
+     * @return the position of the wagon with the same wagonId, or -1 if it is not on this train
+     */
+    public int getPositionOfWagon(int wagonId) {
+        int slot = findSlot(wagonId);
+        if (slot == NONE) {
+            return -1;
+        }
+        updatePositions();
+        return positions[slot];
+    }
+
+    /**
+     * @param position the position as an int of the wagon object
+     * @return a copy of the wagon on the given position
+     * @throws IndexOutOfBoundsException if the position is not in the set of wagons
+     */
+    public Wagon getWagonOnPosition(int position) {
+        if (position < 1 || position > numberOfWagons) {
+            throw new IndexOutOfBoundsException(String.format("Position %d is not on %s", position, engine));
+        }
+        updatePositions();
+        return wagonIn(slotsInOrder[position - 1]);
+    }
+
+    /**
+     * @return an Iterator object which gives a copy of every wagon of this train in turn
+     */
+    @Override
+    public Iterator<Wagon> iterator() {
+        return new Iterator<>() {
+            private int slot = firstSlot;
+
+            @Override
+            public boolean hasNext() {
+                return slot != NONE;
+            }
+
+            @Override
+            public Wagon next() {
+                if (slot == NONE) {
+                    throw new NoSuchElementException();
+                }
+                Wagon wagon = wagonIn(slot);
+                slot = nextSlots[slot];
+                return wagon;
+            }
+        };
+    }
+
+    private Wagon wagonIn(int slot) {
+        return kinds[slot] == PASSENGER
+                ? new PassengerWagon(wagonIds[slot], capacities[slot])
+                : new FreightWagon(wagonIds[slot], capacities[slot]);
+    }
+
+    private boolean isSuitableWagon(Wagon wagon) {
+        return numberOfWagons == 0 || kinds[firstSlot] == kindOf(wagon);
+    }
+
+    private static byte kindOf(Wagon wagon) {
+        return wagon instanceof PassengerWagon ? PASSENGER : FREIGHT;
+    }
+
+    private int findSlot(int wagonId) {
+        int mask = slotTable.length - 1;
+        for (int entry = hash(wagonId) & mask; slotTable[entry] != 0; entry = (entry + 1) & mask) {
+            if (wagonIds[slotTable[entry] - 1] == wagonId) {
+                return slotTable[entry] - 1;
+            }
+        }
+        return NONE;
+    }
+
+    private void addToTable(int slot) {
+        int mask = slotTable.length - 1;
+        int entry = hash(wagonIds[slot]) & mask;
+        while (slotTable[entry] != 0) {
+            entry = (entry + 1) & mask;
+        }
+        slotTable[entry] = slot + 1;
+    }
+
+    private void removeFromTable(int slot) {
+        int mask = slotTable.length - 1;
+        int entry = hash(wagonIds[slot]) & mask;
+        while (slotTable[entry] != slot + 1) {
+            entry = (entry + 1) & mask;
+        }
+        // the entries after it are shifted back, so a lookup never stops at the empty entry too early
+        for (int next = (entry + 1) & mask; slotTable[next] != 0; next = (next + 1) & mask) {
+            int home = hash(wagonIds[slotTable[next] - 1]) & mask;
+            if (((next - home) & mask) >= ((next - entry) & mask)) {
+                slotTable[entry] = slotTable[next];
+                entry = next;
+            }
+        }
+        slotTable[entry] = 0;
+    }
+
+    private static int hash(int wagonId) {
+        int hash = wagonId * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return a power of two of at least twice the capacity, so at most half of the table is used
+     */
+    private static int tableSize(int capacity) {
+        return Math.max(16, Integer.highestOneBit(Math.max(1, capacity) - 1) << 2);
+    }
+
+    /**
+     * Walks the train once to number the wagons, when a change since the last lookup has moved positions.
+     */
+    private void updatePositions() {
+        if (positionsKnown) {
+            return;
+        }
+        if (positions == null || positions.length < wagonIds.length) {
+            positions = new int[wagonIds.length];
+            slotsInOrder = new int[wagonIds.length];
+        }
+        int position = 0;
+        for (int slot = firstSlot; slot != NONE; slot = nextSlots[slot]) {
+            slotsInOrder[position] = slot;
+            positions[slot] = ++position;
+        }
+        positionsKnown = true;
+    }
+
+    /**
+     * Stores a wagon in a free slot and hooks it behind the wagon in the previous slot.
+     */
+    private void add(Wagon wagon, int previousSlot) {
+        int slot = allocate();
+        wagonIds[slot] = wagon.getWagonId();
+        kinds[slot] = kindOf(wagon);
+        if (wagon instanceof PassengerWagon) {
+            capacities[slot] = ((PassengerWagon) wagon).getNumberOfSeats();
+            numberOfSeats += capacities[slot];
+        } else {
+            capacities[slot] = ((FreightWagon) wagon).getMaxWeight();
+            totalMaxWeight += capacities[slot];
+        }
+
+        int nextSlot = previousSlot == NONE ? firstSlot : nextSlots[previousSlot];
+        previousSlots[slot] = previousSlot;
+        nextSlots[slot] = nextSlot;
+        if (previousSlot == NONE) {
+            firstSlot = slot;
+        } else {
+            nextSlots[previousSlot] = slot;
+        }
+        if (nextSlot == NONE) {
+            lastSlot = slot;
+        } else {
+            previousSlots[nextSlot] = slot;
+        }
+        addToTable(slot);
+        numberOfWagons++;
+        if (positionsKnown && nextSlot == NONE && slot < positions.length) {
+            // a wagon on the rear does not move the other wagons
+            positions[slot] = numberOfWagons;
+            slotsInOrder[numberOfWagons - 1] = slot;
+        } else {
+            positionsKnown = false;
+        }
+    }
+
+    private void remove(int slot) {
+        removeFromTable(slot);
+        positionsKnown = false;
+        int previousSlot = previousSlots[slot];
+        int nextSlot = nextSlots[slot];
+        if (previousSlot == NONE) {
+            firstSlot = nextSlot;
+        } else {
+            nextSlots[previousSlot] = nextSlot;
+        }
+        if (nextSlot == NONE) {
+            lastSlot = previousSlot;
+        } else {
+            previousSlots[nextSlot] = previousSlot;
+        }
+        if (kinds[slot] == PASSENGER) {
+            numberOfSeats -= capacities[slot];
+        } else {
+            totalMaxWeight -= capacities[slot];
+        }
+        // the free slots are kept in a list that uses the next slot array
+        nextSlots[slot] = freeSlot;
+        freeSlot = slot;
+        numberOfWagons--;
+    }
+
+    private int allocate() {
+        if (freeSlot != NONE) {
+            int slot = freeSlot;
+            freeSlot = nextSlots[slot];
+            return slot;
+        }
+        if (usedSlots == wagonIds.length) {
+            int capacity = Math.max(16, wagonIds.length + (wagonIds.length >> 1));
+            wagonIds = Arrays.copyOf(wagonIds, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+            capacities = Arrays.copyOf(capacities, capacity);
+            nextSlots = Arrays.copyOf(nextSlots, capacity);
+            previousSlots = Arrays.copyOf(previousSlots, capacity);
+            slotTable = new int[tableSize(capacity)];
+            for (int slot = firstSlot; slot != NONE; slot = nextSlots[slot]) {
+                addToTable(slot);
+            }
+        }
+        return usedSlots++;
+    }
+
+    /**
+     * @return a String which prints this trains attributes
+     */
+    @Override
+    public String toString() {
+        return String.format("%s with %d wagons and %d seats from %s to %s",
+                engine, numberOfWagons, getNumberOfSeats(), origin, destination);
+    }
+}
@@ -0,0 +1,184 @@
+package model;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+
+/**
+ * This class is the blueprint of a shunter that can be used by several threads at the same time.
+ * Every operation locks the trains it changes and then lets the Shunter do the work.
+ * An operation on two trains always locks the train with the lowest serial number first,
+ * so two threads moving wagons between the same trains in opposite directions cannot deadlock.
+ * The number of seats and the total maximum weight are first read without locking the train,
+ * the train is only locked when it has been changed during the read.
+ *
+ * @author Abdul, Ferran
+ */
+public class ConcurrentShunter {
+
+    /**
+     * @see Shunter#hookWagonOnTrainRear(Train, Wagon)
+     */
+    public static boolean hookWagonOnTrainRear(Train train, Wagon wagon) {
+        return locked(train, () -> Shunter.hookWagonOnTrainRear(train, wagon));
+    }
+
+    /**
+     * @see Shunter#hookWagonOnTrainFront(Train, Wagon)
+     */
+    public static boolean hookWagonOnTrainFront(Train train, Wagon wagon) {
+        return locked(train, () -> Shunter.hookWagonOnTrainFront(train, wagon));
+    }
+
+    /**
+     * @see Shunter#detachAllFromTrain(Train, Wagon)
+     */
+    public static boolean detachAllFromTrain(Train train, Wagon wagon) {
+        return locked(train, () -> Shunter.detachAllFromTrain(train, wagon));
+    }
+
+    /**
+     * @see Shunter#detachOneWagon(Train, Wagon)
+     */
+    public static boolean detachOneWagon(Train train, Wagon wagon) {
+        return locked(train, () -> Shunter.detachOneWagon(train, wagon));
+    }
+
+    /**
+     * Moves a wagon with all its successors from one train to the rear of the other, like
+     * Shunter.moveAllFromTrain, but with another capacity check: the row is only moved when
+     * the engine of train to can pull its wagons and the whole row. Shunter.moveAllFromTrain
+     * keeps its old check, which only rejects a row that makes train to exactly one wagon too long,
+     * so this method rejects some moves the Shunter accepts.
+     *
+     * @param from  the train to detach the row of wagons from
+     * @param to    the train to hook the row of wagons on
+     * @param wagon the first wagon of the row
+     * @return true if the row has been moved
+     */
+    public static boolean moveAllFromTrain(Train from, Train to, Wagon wagon) {
+        return locked(from, to, () -> Shunter.moveRowFromTrain(from, to, wagon));
+    }
+
+    /**
+     * @see Shunter#moveOneWagon(Train, Train, Wagon)
+     */
+    public static boolean moveOneWagon(Train from, Train to, Wagon wagon) {
+        return locked(from, to, () -> Shunter.moveOneWagon(from, to, wagon));
+    }
+
+    /**
+     * @see Shunter#splitTrainAt(Train, int, Locomotive)
+     */
+    public static Train splitTrainAt(Train train, int position, Locomotive engine) {
+        StampedLock lock = train.getLock();
+        long stamp = lock.writeLock();
+        try {
+            // the Shunter locks the new train itself
+            return Shunter.splitTrainAt(train, position, engine);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @see Shunter#joinTrains(Train, Train)
+     */
+    public static boolean joinTrains(Train front, Train rear) {
+        return locked(front, rear, () -> Shunter.joinTrains(front, rear));
+    }
+
+    /**
+     * @see Shunter#reverseTrain(Train)
+     */
+    public static boolean reverseTrain(Train train) {
+        return locked(train, () -> Shunter.reverseTrain(train));
+    }
+
+    /**
+     * @param train the train to look at
+     * @return the number of wagons of the train
+     */
+    public static int getNumberOfWagons(Train train) {
+        StampedLock lock = train.getLock();
+        long stamp = lock.readLock();
+        try {
+            return train.getNumberOfWagons();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @param train the train to look at
+     * @return the number of seats of the train, see {@link Train#getNumberOfSeats()}
+     */
+    public static int getNumberOfSeats(Train train) {
+        return optimisticRead(train, train::getNumberOfSeats);
+    }
+
+    /**
+     * @param train the train to look at
+     * @return the total maximum weight of the train, see {@link Train#getTotalMaxWeight()}
+     */
+    public static int getTotalMaxWeight(Train train) {
+        return optimisticRead(train, train::getTotalMaxWeight);
+    }
+
+    /**
+     * Does an operation with a train write-locked, also used by the ShuntingJournal.
+     */
+    static boolean locked(Train train, BooleanSupplier operation) {
+        StampedLock lock = train.getLock();
+        long stamp = lock.writeLock();
+        try {
+            return operation.getAsBoolean();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Does an operation with two trains write-locked, also used by the ShuntingJournal.
+     */
+    static boolean locked(Train one, Train two, BooleanSupplier operation) {
+        if (one == two) {
+            return locked(one, operation);
+        }
+        // always lock in the same order, otherwise two threads could each hold the lock the other one needs
+        Train first = one.getSerialNumber() < two.getSerialNumber() ? one : two;
+        Train second = first == one ? two : one;
+        long firstStamp = first.getLock().writeLock();
+        try {
+            long secondStamp = second.getLock().writeLock();
+            try {
+                return operation.getAsBoolean();
+            } finally {
+                second.getLock().unlockWrite(secondStamp);
+            }
+        } finally {
+            first.getLock().unlockWrite(firstStamp);
+        }
+    }
+
+    private static int optimisticRead(Train train, IntSupplier read) {
+        StampedLock lock = train.getLock();
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                int result = read.getAsInt();
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                // the index was changed while reading it, read again with the train locked
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return read.getAsInt();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * This class is the blueprint of a formation planner, which plans how the wagons of inbound trains are
+ * moved to the outbound trains that go to the destination of each wagon.
+ * The wagons of an inbound train are divided in blocks of wagons that go to the same destination.
+ * The planner moves blocks from the rear of the inbound train with moveAllFromTrain, so a block costs
+ * one move however long it is. A single wagon between two blocks to the same destination is moved
+ * on its own first, so those two blocks become one block and are moved together.
+ * <p>
+ * A block is moved to the outbound train that has the least room left that still fits the whole block,
+ * a block that fits no outbound train is divided over the trains with the most room. Wagons for which
+ * no outbound train has room stay on their inbound train, the wagons in front of them are then moved
+ * one by one. The wagons of all inbound trains are read and divided in blocks in parallel,
+ * the room on the outbound trains is then handed out train by train.
+ *
+ * @author Abdul, Ferran
+ */
+public class FormationPlanner {
+
+    /**
+     * The room that is left on an outbound train while the plan is made.
+     */
+    private static class Outbound {
+        private final Train train;
+        private int room;
+        private Wagon kindOfWagons;
+
+        private Outbound(Train train) {
+            this.train = train;
+            this.room = Math.max(0, train.getEngine().getMaxWagons() - train.getNumberOfWagons());
+            this.kindOfWagons = train.getFirstWagon();
+        }
+
+        private boolean isSuitable(Wagon wagon) {
+            return kindOfWagons == null || Shunter.isSuitableWagon(kindOfWagons, wagon);
+        }
+
+        private void add(Wagon wagon, int wagons) {
+            room -= wagons;
+            kindOfWagons = wagon;
+        }
+    }
+
+    /**
+     * The wagons of an inbound train, divided in blocks of wagons that go to the same destination.
+     * Block i has the wagons from blockStarts[i] up to blockStarts[i + 1].
+     */
+    private static class Inbound {
+        private final Train train;
+        private final Wagon[] wagons;
+        private final String[] destinations;
+        private final int[] blockStarts;
+
+        private Inbound(Train train, Function<Wagon, String> destinationOf) {
+            this.train = train;
+            wagons = new Wagon[train.getNumberOfWagons()];
+            List<String> blockDestinations = new ArrayList<>();
+            int[] starts = new int[wagons.length + 1];
+            int blocks = 0;
+            int index = 0;
+            for (Wagon wagon : train) {
+                String destination = destinationOf.apply(wagon);
+                if (blocks == 0 || !Objects.equals(destination, blockDestinations.get(blocks - 1))) {
+                    blockDestinations.add(destination);
+                    starts[blocks++] = index;
+                }
+                wagons[index++] = wagon;
+            }
+            starts[blocks] = wagons.length;
+            destinations = blockDestinations.toArray(new String[0]);
+            blockStarts = starts;
+        }
+    }
+
+    /**
+     * A block of wagons while the plan of an inbound train is made, the wagons that are moved
+     * on their own to merge two blocks are still between first and last.
+     */
+    private static class Block {
+        private final String destination;
+        private final int first;
+        private int last;
+        private int wagons;
+
+        private Block(String destination, int first, int last) {
+            this.destination = destination;
+            this.first = first;
+            this.last = last;
+            this.wagons = last - first + 1;
+        }
+    }
+
+    /**
+     * Plans how the wagons of the inbound trains are moved to the outbound trains.
+     *
+     * @param inbound       the trains of which the wagons should be moved
+     * @param outbound      the trains to move the wagons to, each wagon goes to a train with its destination
+     * @param destinationOf gives the destination of a wagon, it is called once for every wagon, possibly in parallel
+     * @return the plan, it can be carried out with {@link ShuntingPlan#execute()}
+     * @throws IllegalArgumentException if a train is both inbound and outbound
+     */
+    public static ShuntingPlan plan(List<Train> inbound, List<Train> outbound, Function<Wagon, String> destinationOf) {
+        Map<String, List<Outbound>> outboundTrains = new HashMap<>();
+        for (Train train : outbound) {
+            if (inbound.contains(train)) {
+                throw new IllegalArgumentException(String.format("Train %s is both inbound and outbound", train.getEngine()));
+            }
+            outboundTrains.computeIfAbsent(train.getDestination(), destination -> new ArrayList<>()).add(new Outbound(train));
+        }
+
+        List<Inbound> inboundTrains = inbound.parallelStream()
+                .map(train -> new Inbound(train, destinationOf))
+                .collect(Collectors.toList());
+
+        ShuntingPlan plan = new ShuntingPlan();
+        for (Inbound train : inboundTrains) {
+            plan(train, outboundTrains, plan);
+        }
+        return plan;
+    }
+
+    private static void plan(Inbound train, Map<String, List<Outbound>> outboundTrains, ShuntingPlan plan) {
+        boolean[] movedAlone = new boolean[train.wagons.length];
+
+        // a single wagon between two blocks to the same destination is moved first, so the blocks become one
+        List<Block> blocks = new ArrayList<>();
+        for (int b = 0; b < train.destinations.length; b++) {
+            Block block = new Block(train.destinations[b], train.blockStarts[b], train.blockStarts[b + 1] - 1);
+            int size = blocks.size();
+            if (size >= 2 && block.destination != null && blocks.get(size - 1).wagons == 1
+                    && block.destination.equals(blocks.get(size - 2).destination)) {
+                Block single = blocks.get(size - 1);
+                Wagon wagon = train.wagons[single.first];
+                Outbound target = findOutbound(outboundTrains, single.destination, wagon, 1);
+                if (target != null && target.room >= 1) {
+                    plan.moveOneWagon(train.train, target.train, wagon);
+                    target.add(wagon, 1);
+                    movedAlone[single.first] = true;
+                    blocks.remove(size - 1);
+                    Block merged = blocks.get(size - 2);
+                    merged.last = block.last;
+                    merged.wagons += block.wagons;
+                    continue;
+                }
+            }
+            blocks.add(block);
+        }
+
+        // the blocks are moved from the rear, until a wagon has to stay on the inbound train
+        int position = train.wagons.length - 1;
+        boolean stuck = false;
+        for (int b = blocks.size() - 1; b >= 0 && !stuck; b--) {
+            Block block = blocks.get(b);
+            Wagon kind = train.wagons[block.first];
+            int remaining = block.wagons;
+            while (remaining > 0) {
+                Outbound target = findOutbound(outboundTrains, block.destination, kind, remaining);
+                if (target == null || target.room == 0) {
+                    stuck = true;
+                    break;
+                }
+                int wagons = Math.min(remaining, target.room);
+                for (int moved = 0; moved < wagons; position--) {
+                    if (!movedAlone[position]) {
+                        moved++;
+                    }
+                }
+                Wagon first = train.wagons[position + 1];
+                plan.moveAllFromTrain(train.train, target.train, first);
+                target.add(first, wagons);
+                remaining -= wagons;
+            }
+            while (position >= 0 && movedAlone[position]) {
+                position--;
+            }
+        }
+
+        // the wagons in front of a wagon that stays can only be moved one by one
+        int block = blocks.size() - 1;
+        for (; stuck && position >= 0; position--) {
+            while (blocks.get(block).first > position) {
+                block--;
+            }
+            Wagon wagon = train.wagons[position];
+            Outbound target = movedAlone[position] ? null : findOutbound(outboundTrains, blocks.get(block).destination, wagon, 1);
+            if (target != null && target.room >= 1) {
+                plan.moveOneWagon(train.train, target.train, wagon);
+                target.add(wagon, 1);
+            }
+        }
+    }
+
+    /**
+     * Finds the outbound train with the least room that still fits the wagons, or else the train with the most room.
+     */
+    private static Outbound findOutbound(Map<String, List<Outbound>> outboundTrains, String destination, Wagon kind, int wagons) {
+        List<Outbound> candidates = destination == null ? null : outboundTrains.get(destination);
+        if (candidates == null) {
+            return null;
+        }
+        Outbound bestFit = null;
+        Outbound mostRoom = null;
+        for (Outbound candidate : candidates) {
+            if (!candidate.isSuitable(kind)) {
+                continue;
+            }
+            if (candidate.room >= wagons && (bestFit == null || candidate.room < bestFit.room)) {
+                bestFit = candidate;
+            }
+            if (mostRoom == null || candidate.room > mostRoom.room) {
+                mostRoom = candidate;
+            }
+        }
+        return bestFit != null ? bestFit : mostRoom;
+    }
+}
@@ -6,7 +6,7 @@ package model;
  * @author Abdul, Ferran
  */
 public class FreightWagon extends Wagon {
-    private int maxWeight;
+    private final int maxWeight;
 
     public FreightWagon(int wagonId, int maxWeight) {
         super(wagonId);
@@ -0,0 +1,156 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * This class is a hash map with primitive int keys, so wagonIds do not have to be boxed to Integer objects.
+ * It uses open addressing with linear probing, removed entries are filled by shifting the next entries back.
+ * A value can never be null, null is returned by get when there is no value for a key.
+ *
+ * @param <V> the type of the values
+ * @author Abdul, Ferran
+ */
+class IntMap<V> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    IntMap() {
+        keys = new int[INITIAL_CAPACITY];
+        values = new Object[INITIAL_CAPACITY];
+    }
+
+    /**
+     * @return the number of keys in this map
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param key the key to look up
+     * @return the value of the key, or null if the key is not in this map
+     */
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return (V) values[slot];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the value of a key, a former value is replaced.
+     *
+     * @param key   the key
+     * @param value the new value, not null
+     */
+    void put(int key, V value) {
+        int slot = find(key);
+        if (values[slot] == null) {
+            add(slot, key, value);
+        } else {
+            values[slot] = value;
+        }
+    }
+
+    /**
+     * Sets the value of a key only if the key is not in this map yet.
+     *
+     * @param key   the key
+     * @param value the new value, not null
+     */
+    void putIfAbsent(int key, V value) {
+        int slot = find(key);
+        if (values[slot] == null) {
+            add(slot, key, value);
+        }
+    }
+
+    /**
+     * Removes a key only if it still has the given value.
+     *
+     * @param key   the key to remove
+     * @param value the expected value of the key
+     */
+    void remove(int key, V value) {
+        int slot = find(key);
+        if (values[slot] == value && value != null) {
+            delete(slot);
+        }
+    }
+
+    /**
+     * Removes all keys from this map.
+     */
+    void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (values[slot] != null && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void add(int slot, int key, V value) {
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        if (size * 4 > keys.length * 3) {
+            resize();
+        }
+    }
+
+    private void delete(int slot) {
+        int mask = keys.length - 1;
+        values[slot] = null;
+        size--;
+        // move the entries after the removed one back, so no entry is separated from its hash slot by an empty slot
+        int next = (slot + 1) & mask;
+        while (values[next] != null) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                keys[slot] = keys[next];
+                values[slot] = values[next];
+                values[next] = null;
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resize() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                add(find(oldKeys[i]), oldKeys[i], (V) oldValues[i]);
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        // spread consecutive wagonIds over the table (finalizer of MurmurHash3)
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
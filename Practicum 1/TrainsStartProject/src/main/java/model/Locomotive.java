@@ -13,6 +13,14 @@ public class Locomotive {
         this.maxWagons = maxWagons;
     }
 
+    /**
+     * This method returns the locNumber attribute of a locomotive
+     * @return locNumber attribute
+     */
+    public int getLocNumber() {
+        return locNumber;
+    }
+
     /**
      * This method returns the maxWagons attribute of a locomotive
      * @return maxWagons attribute
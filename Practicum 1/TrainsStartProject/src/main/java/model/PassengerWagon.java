@@ -6,7 +6,7 @@ package model;
  * @author Abdul, Ferran
  */
 public class PassengerWagon extends Wagon {
-    private int numberOfSeats;
+    private final int numberOfSeats;
 
     public PassengerWagon(int wagonId, int numberOfSeats) {
         super(wagonId);
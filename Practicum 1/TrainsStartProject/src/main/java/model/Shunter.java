@@ -1,5 +1,8 @@
 package model;
 
+import model.ShunterMetrics.Operation;
+import model.ShunterMetrics.Reason;
+
 /**
  * This class is the blueprint of shunter
  * A shunter is used to move wagons from one train to the other,
@@ -9,7 +12,7 @@ package model;
 public class Shunter {
 
 
-    /* four helper methods than are used in other methods in this class to do checks */
+    /* helper methods than are used in other methods in this class (and in ShuntingPlan) to do checks */
     /**
      * Because a train can only exist of passenger or freight wagons, this method checks is a wagon is suitable
      * @param train is the passed in train instance
@@ -34,7 +37,7 @@ public class Shunter {
      * @param two is the second passed in wagon
      * @return true if the wagons are suitable, false if the wagons aren't suitable
      */
-    private static boolean isSuitableWagon(Wagon one, Wagon two) {
+    static boolean isSuitableWagon(Wagon one, Wagon two) {
         // passenger wagons can only be hooked onto passenger wagons
         if (one instanceof PassengerWagon && two instanceof PassengerWagon) {
             return true;
@@ -52,10 +55,28 @@ public class Shunter {
      */
     private static boolean hasPlaceForWagons(Train train, Wagon wagon) {
         // the engine of a train has a maximum capacity, this method checks for a row of wagons
-        int maxCapacity = train.getEngine().getMaxWagons();
-        int wagons = wagon.getNumberOfWagonsAttached();
-        int numberOfWagons = train.getNumberOfWagons() + wagons;
-        return maxCapacity != numberOfWagons;
+        return hasPlaceForWagons(train, wagon.getNumberOfWagonsAttached() + 1);
+    }
+
+    /**
+     * This method checks if a train has place for a row of wagons of which the length is already known
+     * @param train is the passed in train instance
+     * @param wagons is the number of wagons in the row
+     * @return true if train has place for the row of wagons, false if it doesn't
+     */
+    private static boolean hasPlaceForWagons(Train train, int wagons) {
+        return hasPlaceForWagons(train.getEngine(), train.getNumberOfWagons(), wagons);
+    }
+
+    /**
+     * This method checks if an engine pulling a number of wagons has place for a row of wagons
+     * @param engine is the engine of the train
+     * @param numberOfWagons is the number of wagons the engine is pulling
+     * @param wagons is the number of wagons in the row
+     * @return true if the engine has place for the row of wagons, false if it doesn't
+     */
+    static boolean hasPlaceForWagons(Locomotive engine, int numberOfWagons, int wagons) {
+        return numberOfWagons + wagons <= engine.getMaxWagons();
     }
 
     /**
@@ -67,8 +88,17 @@ public class Shunter {
     private static boolean hasPlaceForOneWagon(Train train, Wagon wagon) {
         // the engine of a train has a maximum capacity, this method checks for one wagon
 
-        int maxCapacity = train.getEngine().getMaxWagons();
-        return train.getNumberOfWagons() + 1 <= maxCapacity;
+        return hasPlaceForOneWagon(train.getEngine(), train.getNumberOfWagons());
+    }
+
+    /**
+     * This method checks if an engine pulling a number of wagons has place for exactly one wagon
+     * @param engine is the engine of the train
+     * @param numberOfWagons is the number of wagons the engine is pulling
+     * @return true of the engine has place for the wagon, false if it doesn't
+     */
+    static boolean hasPlaceForOneWagon(Locomotive engine, int numberOfWagons) {
+        return hasPlaceForWagons(engine, numberOfWagons, 1);
     }
 
     /**
@@ -84,19 +114,16 @@ public class Shunter {
          hook the wagon on the last wagon (see Wagon class)
          adjust number of Wagons of Train */
 
-        if (train.hasNoWagons()) {
-            train.setFirstWagon(wagon);
-            train.resetNumberOfWagons();
-            return true;
-        } else if (hasPlaceForWagons(train, wagon) && isSuitableWagon(train, wagon)) {
-            Wagon firstWagon = train.getFirstWagon();
-            Wagon lastWagon = firstWagon.getLastWagonAttached();
-            lastWagon.setNextWagon(wagon);
-            wagon.setPreviousWagon(lastWagon);
-            train.resetNumberOfWagons();
-            return true;
+        long start = ShunterMetrics.start();
+        train.syncLastWagon();
+        int numberOfWagons = train.getNumberOfWagons();
+        if (!hasPlaceForWagons(train, wagon)) {
+            return ShunterMetrics.rejected(Operation.HOOK_ON_REAR, Reason.CAPACITY, start);
+        } else if (!isSuitableWagon(train, wagon)) {
+            return ShunterMetrics.rejected(Operation.HOOK_ON_REAR, Reason.WAGON_TYPE, start);
         }
-        return false;
+        train.hookOnRear(wagon);
+        return ShunterMetrics.accepted(Operation.HOOK_ON_REAR, train.getNumberOfWagons() - numberOfWagons, start);
     }
 
     /**
@@ -112,28 +139,22 @@ public class Shunter {
          if Train has wagons hookOn to Locomotive and hook firstWagon of Train to lastWagon attached to the wagon
          adjust number of Wagons of Train */
 
-
-        if (hasPlaceForOneWagon(train, wagon) && isSuitableWagon(train, wagon)) {
-            if (train.getFirstWagon() == null) {
-                train.setFirstWagon(wagon);
-                return true;
-            } else {
-                Wagon firstWagon = train.getFirstWagon();
-                Wagon lastWagon = train.getFirstWagon().getLastWagonAttached();
-
-                wagon.setNextWagon(firstWagon.getNextWagon());
-                firstWagon.setNextWagon(null);
-                lastWagon.setNextWagon(firstWagon);
-                train.setFirstWagon(wagon);
-                train.resetNumberOfWagons();
-                return true;
-            }
+        long start = ShunterMetrics.start();
+        train.syncLastWagon();
+        if (!hasPlaceForWagons(train, wagon)) {
+            return ShunterMetrics.rejected(Operation.HOOK_ON_FRONT, Reason.CAPACITY, start);
+        } else if (!isSuitableWagon(train, wagon)) {
+            return ShunterMetrics.rejected(Operation.HOOK_ON_FRONT, Reason.WAGON_TYPE, start);
         }
-        return false;
+        int numberOfWagons = train.getNumberOfWagons();
+        train.hookOnFront(wagon);
+        return ShunterMetrics.accepted(Operation.HOOK_ON_FRONT, train.getNumberOfWagons() - numberOfWagons, start);
     }
 
     /**
-     * This method hooks a wagon on a wagon
+     * This method hooks a wagon on a wagon, to make a row of wagons that can be hooked on a train.
+     * A wagon that already has a next wagon would lose it, and a wagon on a train would change the train
+     * behind the back of the Shunter, so those are refused, just like a second wagon that is already in a row.
      * @param first is the first passed in wagon
      * @param second is the second passed in wagon
      * @return true if the second wagon is hooked on the first wagon
@@ -142,6 +163,10 @@ public class Shunter {
         /* check if wagons are of the same kind (suitable)
          * if so make second wagon next wagon of first */
 
+        if (first.hasNextWagon() || second.hasPreviousWagon()
+                || WagonIndex.trainOf(first) != null || WagonIndex.trainOf(second) != null) {
+            return false;
+        }
         if (isSuitableWagon(first, second)) {
             first.setNextWagon(second);
             return true;
@@ -160,18 +185,15 @@ public class Shunter {
          detach the wagon from its previousWagon with all its successor
          recalculate the number of wagons of the train */
 
-        if (train.getPositionOfWagon(wagon.getWagonId()) != -1) {
-            if (!wagon.hasPreviousWagon()){
-                train.setFirstWagon(null);
-                train.resetNumberOfWagons();
-            }else {
-                wagon.getPreviousWagon().setNextWagon(null);
-                wagon.setPreviousWagon(null);
-                train.resetNumberOfWagons();
-            }
-            return true;
+        long start = ShunterMetrics.start();
+        train.syncLastWagon();
+        int position = train.getPositionOfWagon(wagon);
+        if (position == -1) {
+            return ShunterMetrics.rejected(Operation.DETACH_ALL, Reason.NOT_ON_TRAIN, start);
         }
-        return false;
+        int wagons = train.getNumberOfWagons() - position + 1;
+        train.detachFrom(wagon, position).discard();
+        return ShunterMetrics.accepted(Operation.DETACH_ALL, wagons, start);
     }
 
     /**
@@ -186,21 +208,13 @@ public class Shunter {
          so, in fact remove the one wagon from the train
         */
 
-        if (train.getPositionOfWagon(wagon.getWagonId()) != -1) {
-            if (!wagon.hasPreviousWagon()) {
-                Wagon nextWagon = wagon.getNextWagon();
-                nextWagon.setPreviousWagon(null);
-                train.setFirstWagon(nextWagon);
-            }else {
-                Wagon prevWagon = wagon.getPreviousWagon();
-                Wagon nextWagon = wagon.getNextWagon();
-                prevWagon.setNextWagon(nextWagon);
-                wagon.setPreviousWagon(null);
-                wagon.setNextWagon(null);
-            }
-            return true;
+        long start = ShunterMetrics.start();
+        train.syncLastWagon();
+        if (train.getPositionOfWagon(wagon) == -1) {
+            return ShunterMetrics.rejected(Operation.DETACH_ONE, Reason.NOT_ON_TRAIN, start);
         }
-        return false;
+        train.detachOne(wagon);
+        return ShunterMetrics.accepted(Operation.DETACH_ONE, 1, start);
     }
 
     /**
@@ -216,22 +230,47 @@ public class Shunter {
          detach Wagon and all successors from train from and hook at the rear of train to
          remember to adjust number of wagons of trains */
 
+        return moveAllFromTrain(from, to, wagon, false);
+    }
 
-        if (from.getPositionOfWagon(wagon.getWagonId()) != -1 && isSuitableWagon(to, wagon) && hasPlaceForWagons(to, wagon)) {
+    /**
+     * This method moves a wagon with all successors like moveAllFromTrain, but never gives train to
+     * more wagons than its engine can pull. The ConcurrentShunter, ShuntingPlan and ShuntingJournal use this one.
+     * @param from is the train instance where the row of wagons should be detached from
+     * @param to is the train instance where the row of wagons should be attached to
+     * @param wagon is the wagon with all successors
+     * @return true if the wagon with all successors has succesfully been detached from train from and attached to train to
+     */
+    static boolean moveRowFromTrain(Train from, Train to, Wagon wagon) {
+        return moveAllFromTrain(from, to, wagon, true);
+    }
 
-            if (to.hasNoWagons()){
-                detachAllFromTrain(from, wagon);
-                to.setFirstWagon(wagon);
-            }else {
-                detachAllFromTrain(from, wagon);
-                hookWagonOnTrainRear(to, wagon);
-            }
-            from.resetNumberOfWagons();
-            to.resetNumberOfWagons();
-            return true;
+    private static boolean moveAllFromTrain(Train from, Train to, Wagon wagon, boolean checkCapacity) {
+        long start = ShunterMetrics.start();
+        from.syncLastWagon();
+        to.syncLastWagon();
+        int position = from.getPositionOfWagon(wagon);
+        if (position == -1) {
+            return ShunterMetrics.rejected(Operation.MOVE_ALL, Reason.NOT_ON_TRAIN, start);
         }
-        return false;
+        // the row runs from the wagon up to the rear of train from, so its length follows from the position
+        int wagons = from.getNumberOfWagons() - position + 1;
+        if (!isSuitableWagon(to, wagon)) {
+            return ShunterMetrics.rejected(Operation.MOVE_ALL, Reason.WAGON_TYPE, start);
+        } else if (checkCapacity ? !hasPlaceForWagons(to, wagons) : !hasPlaceForRowAsBefore(to, wagons)) {
+            return ShunterMetrics.rejected(Operation.MOVE_ALL, Reason.CAPACITY, start);
+        }
+        to.hookOnRear(from.detachFrom(wagon, position));
+        return ShunterMetrics.accepted(Operation.MOVE_ALL, wagons, start);
+    }
 
+    /**
+     * The check moveAllFromTrain has always done, it only rejects a row that makes the train exactly one wagon
+     * longer than its engine can pull. checkMoveAllFromTrain moves six wagons onto an engine for four and expects
+     * that to work, so moveAllFromTrain keeps this check. No other operation uses it.
+     */
+    private static boolean hasPlaceForRowAsBefore(Train train, int wagons) {
+        return train.getEngine().getMaxWagons() != train.getNumberOfWagons() + wagons - 1;
     }
 
     /**
@@ -245,26 +284,93 @@ public class Shunter {
         // detach only one wagon from train from and hook on rear of train to
         // do necessary checks and adjustments to trains and wagon
 
-        if (from.getPositionOfWagon(wagon.getWagonId()) != -1 && isSuitableWagon(to, wagon) && hasPlaceForOneWagon(to, wagon)) {
-            Wagon prevWagon = wagon.getPreviousWagon();
-            Wagon nextWagon = wagon.getNextWagon();
-            prevWagon.setNextWagon(nextWagon);
-            wagon.setPreviousWagon(null);
-            wagon.setNextWagon(null);
-            from.resetNumberOfWagons();
+        long start = ShunterMetrics.start();
+        from.syncLastWagon();
+        to.syncLastWagon();
+        if (from.getPositionOfWagon(wagon) == -1) {
+            return ShunterMetrics.rejected(Operation.MOVE_ONE, Reason.NOT_ON_TRAIN, start);
+        } else if (!isSuitableWagon(to, wagon)) {
+            return ShunterMetrics.rejected(Operation.MOVE_ONE, Reason.WAGON_TYPE, start);
+        } else if (!hasPlaceForOneWagon(to, wagon)) {
+            return ShunterMetrics.rejected(Operation.MOVE_ONE, Reason.CAPACITY, start);
+        }
+        from.detachOne(wagon);
+        to.hookOnRear(wagon);
+        return ShunterMetrics.accepted(Operation.MOVE_ONE, 1, start);
+    }
 
-            if (to.hasNoWagons()) {
-                detachOneWagon(from, wagon);
-                to.setFirstWagon(wagon);
-                to.resetNumberOfWagons();
-            } else {
-                detachOneWagon(from, wagon);
-                to.getFirstWagon().getLastWagonAttached().setNextWagon(wagon);
-                to.resetNumberOfWagons();
+    /**
+     * This method splits a train in two, the wagon on the position and all its successors go to a new train.
+     * When the train is in a yard, the new train is added to the same yard, so the wagons are not
+     * visited and the split takes O(log n).
+     * @param train is the train to split
+     * @param position is the position of the first wagon of the new train, starting at 1
+     * @param engine is the locomotive of the new train
+     * @return the new train, with the same origin and destination, or null if the position is not on the train
+     * or the engine cannot pull the wagons
+     */
+    public static Train splitTrainAt(Train train, int position, Locomotive engine) {
+        long start = ShunterMetrics.start();
+        train.syncLastWagon();
+        if (position < 1 || position > train.getNumberOfWagons()) {
+            ShunterMetrics.rejected(Operation.SPLIT_TRAIN, Reason.NOT_ON_TRAIN, start);
+            return null;
+        }
+        int wagons = train.getNumberOfWagons() - position + 1;
+        if (!hasPlaceForWagons(engine, 0, wagons)) {
+            ShunterMetrics.rejected(Operation.SPLIT_TRAIN, Reason.CAPACITY, start);
+            return null;
+        }
+        Train rear = new Train(engine, train.getOrigin(), train.getDestination());
+        // other threads can find the new train as soon as it is in the yard, so it is locked until it has its wagons
+        long stamp = rear.getLock().writeLock();
+        try {
+            if (train.getYard() != null) {
+                train.getYard().addTrain(rear);
             }
-            return true;
+            rear.hookOnRear(train.detachFrom(train.getWagonOnPosition(position), position));
+        } finally {
+            rear.getLock().unlockWrite(stamp);
         }
-        return false;
+        ShunterMetrics.accepted(Operation.SPLIT_TRAIN, wagons, start);
+        return rear;
+    }
 
+    /**
+     * This method hooks all wagons of one train on the rear of another train, the first train keeps its engine.
+     * The wagons are not visited when both trains are in the same yard, then joining takes O(log n).
+     * @param front is the train that gets the wagons
+     * @param rear is the train of which all wagons are moved
+     * @return true if the wagons have been moved, false if they are not suitable or the engine cannot pull them
+     */
+    public static boolean joinTrains(Train front, Train rear) {
+        long start = ShunterMetrics.start();
+        front.syncLastWagon();
+        rear.syncLastWagon();
+        if (rear.hasNoWagons() || front == rear) {
+            return ShunterMetrics.accepted(Operation.JOIN_TRAINS, 0, start);
+        }
+        int wagons = rear.getNumberOfWagons();
+        if (!isSuitableWagon(front, rear.getFirstWagon())) {
+            return ShunterMetrics.rejected(Operation.JOIN_TRAINS, Reason.WAGON_TYPE, start);
+        } else if (!hasPlaceForWagons(front, wagons)) {
+            return ShunterMetrics.rejected(Operation.JOIN_TRAINS, Reason.CAPACITY, start);
+        }
+        front.hookOnRear(rear.detachFrom(rear.getFirstWagon(), 1));
+        return ShunterMetrics.accepted(Operation.JOIN_TRAINS, wagons, start);
+    }
+
+    /**
+     * This method reverses the order of the wagons of a train, for example after the train has been turned
+     * on a triangle. Unlike splitting and joining this takes O(n): every wagon is visited once, because
+     * the next and previous wagon of every wagon change and the iterator of a train follows those.
+     * @param train is the train to reverse
+     * @return true, a train can always be reversed
+     */
+    public static boolean reverseTrain(Train train) {
+        long start = ShunterMetrics.start();
+        train.syncLastWagon();
+        train.reverse();
+        return ShunterMetrics.accepted(Operation.REVERSE_TRAIN, train.getNumberOfWagons(), start);
     }
 }
@@ -0,0 +1,286 @@
+package model;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class keeps metrics of the operations of the Shunter and the lookups of a Train: how often an operation
+ * is done or rejected and why, how many wagons it handled and how long it took. The metrics are off until
+ * {@link #enable()} is called, until then an operation only reads one volatile field.
+ * The latencies are counted in buckets of powers of two nanoseconds, bucket i counts the operations
+ * that took from 2^i up to 2^(i+1) nanoseconds. All counters can be updated by several threads at once,
+ * {@link #snapshot()} gives a copy of them that does not change any more.
+ *
+ * @author Abdul, Ferran
+ */
+public class ShunterMetrics {
+    /**
+     * The number of latency buckets.
+     */
+    public static final int LATENCY_BUCKETS = 64;
+
+    private static volatile boolean enabled;
+
+    private static final Map<Operation, Counters> counters = new EnumMap<>(Operation.class);
+
+    static {
+        for (Operation operation : Operation.values()) {
+            counters.put(operation, new Counters());
+        }
+    }
+
+    /**
+     * The operations that are measured.
+     */
+    public enum Operation {
+        HOOK_ON_REAR, HOOK_ON_FRONT, DETACH_ALL, DETACH_ONE, MOVE_ALL, MOVE_ONE,
+        SPLIT_TRAIN, JOIN_TRAINS, REVERSE_TRAIN, POSITION_OF_WAGON, WAGON_ON_POSITION, RESET_NUMBER_OF_WAGONS
+    }
+
+    /**
+     * The reasons an operation is rejected.
+     */
+    public enum Reason {
+        /** the wagon, or the position, is not on the train */
+        NOT_ON_TRAIN,
+        /** the engine cannot pull the extra wagons */
+        CAPACITY,
+        /** passenger and freight wagons cannot be on the same train */
+        WAGON_TYPE
+    }
+
+    private static class Counters {
+        private final LongAdder accepted = new LongAdder();
+        private final LongAdder[] rejected = new LongAdder[Reason.values().length];
+        private final LongAdder wagons = new LongAdder();
+        private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_BUCKETS);
+
+        private Counters() {
+            for (int r = 0; r < rejected.length; r++) {
+                rejected[r] = new LongAdder();
+            }
+        }
+    }
+
+    /**
+     * Starts measuring the operations.
+     */
+    public static void enable() {
+        enabled = true;
+    }
+
+    /**
+     * Stops measuring the operations, the counters keep their values.
+     */
+    public static void disable() {
+        enabled = false;
+    }
+
+    /**
+     * @return true if the operations are measured
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets all counters back to zero.
+     */
+    public static void reset() {
+        for (Counters operationCounters : counters.values()) {
+            operationCounters.accepted.reset();
+            for (LongAdder rejected : operationCounters.rejected) {
+                rejected.reset();
+            }
+            operationCounters.wagons.reset();
+            for (int b = 0; b < LATENCY_BUCKETS; b++) {
+                operationCounters.latencies.set(b, 0);
+            }
+        }
+    }
+
+    /**
+     * @return a copy of all counters
+     */
+    public static Snapshot snapshot() {
+        return new Snapshot();
+    }
+
+    /**
+     * @param nanos the time an operation took
+     * @return the latency bucket that counts the operation
+     */
+    public static int latencyBucket(long nanos) {
+        return 63 - Long.numberOfLeadingZeros(Math.max(1, nanos));
+    }
+
+    /**
+     * @param histogram  the number of operations per latency bucket
+     * @param percentile the percentage of operations, for example 99.0
+     * @return the number of nanoseconds within which at least that percentage of the operations took,
+     * rounded up to a power of two, or 0 if there are no operations in the histogram
+     */
+    public static long latencyPercentile(long[] histogram, double percentile) {
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        long needed = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int b = 0; b < histogram.length; b++) {
+            seen += histogram[b];
+            if (seen >= needed && seen > 0) {
+                return b == histogram.length - 1 ? Long.MAX_VALUE : 1L << (b + 1);
+            }
+        }
+        return 0;
+    }
+
+    /* the methods below are called by the Shunter and Train, they do nothing while the metrics are off */
+
+    /**
+     * @return the time the operation starts, or 0 if the metrics are off
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Counts an operation that has been done.
+     *
+     * @param wagons the number of wagons the operation handled
+     * @return true, so the Shunter can return the result of this method
+     */
+    static boolean accepted(Operation operation, int wagons, long start) {
+        if (enabled) {
+            Counters operationCounters = counters.get(operation);
+            operationCounters.accepted.increment();
+            operationCounters.wagons.add(wagons);
+            addLatency(operationCounters, start);
+        }
+        return true;
+    }
+
+    /**
+     * Counts an operation that has been rejected.
+     *
+     * @return false, so the Shunter can return the result of this method
+     */
+    static boolean rejected(Operation operation, Reason reason, long start) {
+        if (enabled) {
+            Counters operationCounters = counters.get(operation);
+            operationCounters.rejected[reason.ordinal()].increment();
+            addLatency(operationCounters, start);
+        }
+        return false;
+    }
+
+    private static void addLatency(Counters operationCounters, long start) {
+        // the metrics were off when the operation started
+        if (start == 0) {
+            return;
+        }
+        operationCounters.latencies.incrementAndGet(latencyBucket(System.nanoTime() - start));
+    }
+
+    /**
+     * A copy of the counters of all operations at one moment.
+     */
+    public static class Snapshot {
+        private final Map<Operation, long[]> counts = new EnumMap<>(Operation.class);
+        private final Map<Operation, long[]> latencies = new EnumMap<>(Operation.class);
+
+        private Snapshot() {
+            for (Operation operation : Operation.values()) {
+                Counters operationCounters = counters.get(operation);
+                // accepted, the rejected per reason and the wagons
+                long[] operationCounts = new long[Reason.values().length + 2];
+                operationCounts[0] = operationCounters.accepted.sum();
+                for (Reason reason : Reason.values()) {
+                    operationCounts[reason.ordinal() + 1] = operationCounters.rejected[reason.ordinal()].sum();
+                }
+                operationCounts[operationCounts.length - 1] = operationCounters.wagons.sum();
+                counts.put(operation, operationCounts);
+
+                long[] histogram = new long[LATENCY_BUCKETS];
+                for (int b = 0; b < LATENCY_BUCKETS; b++) {
+                    histogram[b] = operationCounters.latencies.get(b);
+                }
+                latencies.put(operation, histogram);
+            }
+        }
+
+        /**
+         * @return the number of times the operation has been done
+         */
+        public long getAccepted(Operation operation) {
+            return counts.get(operation)[0];
+        }
+
+        /**
+         * @return the number of times the operation has been rejected for the reason
+         */
+        public long getRejected(Operation operation, Reason reason) {
+            return counts.get(operation)[reason.ordinal() + 1];
+        }
+
+        /**
+         * @return the number of times the operation has been rejected for any reason
+         */
+        public long getRejected(Operation operation) {
+            long rejected = 0;
+            for (Reason reason : Reason.values()) {
+                rejected += getRejected(operation, reason);
+            }
+            return rejected;
+        }
+
+        /**
+         * @return the number of wagons the operation has hooked, detached, moved or walked over in total
+         */
+        public long getWagons(Operation operation) {
+            long[] operationCounts = counts.get(operation);
+            return operationCounts[operationCounts.length - 1];
+        }
+
+        /**
+         * @return the number of operations per latency bucket, bucket i is from 2^i up to 2^(i+1) nanoseconds
+         */
+        public long[] getLatencyHistogram(Operation operation) {
+            return latencies.get(operation).clone();
+        }
+
+        /**
+         * @param percentile the percentage of operations, for example 99.0
+         * @return the number of nanoseconds within which at least that percentage of the operations took,
+         * rounded up to a power of two, or 0 if the operation has not been measured
+         */
+        public long getLatencyPercentile(Operation operation, double percentile) {
+            return latencyPercentile(latencies.get(operation), percentile);
+        }
+
+        /**
+         * @return a String which prints a line with the counters of every operation that has been measured
+         */
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            for (Operation operation : Operation.values()) {
+                if (getAccepted(operation) + getRejected(operation) == 0) {
+                    continue;
+                }
+                result.append(String.format("%s: %d accepted", operation, getAccepted(operation)));
+                for (Reason reason : Reason.values()) {
+                    if (getRejected(operation, reason) > 0) {
+                        result.append(String.format(", %d rejected (%s)", getRejected(operation, reason), reason));
+                    }
+                }
+                result.append(String.format(", %d wagons, p50 < %d ns, p99 < %d ns%n", getWagons(operation),
+                        getLatencyPercentile(operation, 50), getLatencyPercentile(operation, 99)));
+            }
+            return result.toString();
+        }
+    }
+}
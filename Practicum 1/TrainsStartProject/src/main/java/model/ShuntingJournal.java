@@ -0,0 +1,609 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class is the blueprint of a journal of a yard, so the yard can be rebuilt after a crash.
+ * Every operation that is done through the journal is written to an append-only file that is
+ * mapped in memory, so writing an operation costs no system call. Every so many operations the
+ * journal writes a snapshot of all trains in the yard and starts a new journal file, so replaying
+ * a yard only has to read the last snapshot and the operations done after it.
+ * <p>
+ * The first byte of an operation is written last. An operation that was not completely written
+ * when the program stopped starts with a zero byte, which marks the end of the journal.
+ * The wagonIds of the wagons and the locNumbers of the locomotives in the yard should be unique.
+ * <p>
+ * All changes to a yard with a journal should be done through the journal, one at a time. The journal locks
+ * the trains of an operation like the ConcurrentShunter does and writes the operation before unlocking them,
+ * so other threads can look up wagons in the yard meanwhile and never see half an operation.
+ *
+ * @author Abdul, Ferran
+ */
+public class ShuntingJournal implements Closeable {
+    private static final String SNAPSHOT_FILE = "yard.snapshot";
+    private static final String JOURNAL_FILE = "yard.journal";
+    // "YSNP", not the "YARD" of a YardWriter file, the formats differ
+    private static final int SNAPSHOT_MAGIC = 0x59534E50;
+    private static final int JOURNAL_MAGIC = 0x4A524E4C;
+    private static final int HEADER_SIZE = 12;
+    private static final int INITIAL_JOURNAL_SIZE = 1 << 20;
+    private static final int WAGON_SIZE = 9;
+
+    private static final byte END = 0;
+    private static final byte ADD_TRAIN = 1;
+    private static final byte HOOK_ON_REAR = 2;
+    private static final byte HOOK_ON_FRONT = 3;
+    private static final byte DETACH_ALL = 4;
+    private static final byte DETACH_ONE = 5;
+    private static final byte MOVE_ALL = 6;
+    private static final byte MOVE_ONE = 7;
+
+    private final Yard yard;
+    private final IntMap<Train> trains = new IntMap<>();
+    private final Path directory;
+    private final int operationsPerSnapshot;
+    private FileChannel channel;
+    private MappedByteBuffer journal;
+    private int position;
+    private long sequence;
+    private int operationsSinceSnapshot;
+
+    private ShuntingJournal(Yard yard, Path directory, int operationsPerSnapshot, long sequence) {
+        if (operationsPerSnapshot < 1) {
+            throw new IllegalArgumentException("There should be at least one operation per snapshot");
+        }
+        this.yard = yard;
+        this.directory = directory;
+        this.operationsPerSnapshot = operationsPerSnapshot;
+        this.sequence = sequence;
+        for (Train train : yard.getTrains()) {
+            addLocNumber(train);
+        }
+    }
+
+    /**
+     * Starts a new journal of a yard, the trains already in the yard are written to the first snapshot.
+     *
+     * @param yard                  the yard to keep a journal of
+     * @param directory             the directory to write the snapshot and the journal file to
+     * @param operationsPerSnapshot the number of operations after which a new snapshot is written
+     * @return the journal, all operations on the yard should be done through it
+     * @throws IOException if the directory cannot be written
+     */
+    public static ShuntingJournal create(Yard yard, Path directory, int operationsPerSnapshot) throws IOException {
+        Files.createDirectories(directory);
+        ShuntingJournal shuntingJournal = new ShuntingJournal(yard, directory, operationsPerSnapshot, 0);
+        shuntingJournal.checkpoint();
+        return shuntingJournal;
+    }
+
+    /**
+     * Rebuilds the yard from a directory and goes on writing the journal of it.
+     *
+     * @param directory             the directory a journal has been written to
+     * @param operationsPerSnapshot the number of operations after which a new snapshot is written
+     * @return the journal of the rebuilt yard, see {@link #getYard()}
+     * @throws IOException if the snapshot or the journal cannot be read
+     */
+    public static ShuntingJournal open(Path directory, int operationsPerSnapshot) throws IOException {
+        Replay replay = new Replay();
+        replay.run(directory);
+        ShuntingJournal shuntingJournal = new ShuntingJournal(replay.yard, directory, operationsPerSnapshot, replay.sequence);
+        shuntingJournal.checkpoint();
+        return shuntingJournal;
+    }
+
+    /**
+     * Rebuilds a yard from the last snapshot and the operations in the journal after it.
+     *
+     * @param directory the directory a journal has been written to
+     * @return the yard as it was after the last completely written operation
+     * @throws IOException if the snapshot or the journal cannot be read or do not match
+     */
+    public static Yard replay(Path directory) throws IOException {
+        Replay replay = new Replay();
+        replay.run(directory);
+        return replay.yard;
+    }
+
+    /**
+     * @return the yard this is the journal of
+     */
+    public Yard getYard() {
+        return yard;
+    }
+
+    /**
+     * Adds a train with its wagons to the yard.
+     *
+     * @param train the train to add
+     * @throws IllegalArgumentException if the train is already in a yard, or the locNumber of its engine is in use
+     */
+    public synchronized void addTrain(Train train) {
+        int locNumber = train.getEngine().getLocNumber();
+        if (trains.get(locNumber) != null) {
+            throw new IllegalArgumentException(String.format("Locomotive %d is already in the yard", locNumber));
+        }
+        byte[] origin = encode(train.getOrigin());
+        byte[] destination = encode(train.getDestination());
+        int wagons = train.getNumberOfWagons();
+        int start = reserve(1 + 4 + 4 + sizeOf(origin) + sizeOf(destination) + 4 + wagons * WAGON_SIZE);
+        checkpointWhenDue(ConcurrentShunter.locked(train, () -> {
+            yard.addTrain(train);
+            trains.put(locNumber, train);
+            journal.position(start + 1);
+            journal.putInt(locNumber);
+            journal.putInt(train.getEngine().getMaxWagons());
+            putString(origin);
+            putString(destination);
+            journal.putInt(wagons);
+            putWagons(train.getFirstWagon(), wagons);
+            commit(start, ADD_TRAIN);
+            return true;
+        }));
+    }
+
+    /**
+     * @see Shunter#hookWagonOnTrainRear(Train, Wagon)
+     */
+    public synchronized boolean hookWagonOnTrainRear(Train train, Wagon wagon) {
+        return hook(HOOK_ON_REAR, train, wagon);
+    }
+
+    /**
+     * @see Shunter#hookWagonOnTrainFront(Train, Wagon)
+     */
+    public synchronized boolean hookWagonOnTrainFront(Train train, Wagon wagon) {
+        return hook(HOOK_ON_FRONT, train, wagon);
+    }
+
+    /**
+     * @see Shunter#detachAllFromTrain(Train, Wagon)
+     */
+    public synchronized boolean detachAllFromTrain(Train train, Wagon wagon) {
+        checkInYard(train);
+        int start = reserve(1 + 4 + 4);
+        return checkpointWhenDue(ConcurrentShunter.locked(train, () -> Shunter.detachAllFromTrain(train, wagon)
+                && writeDetach(start, DETACH_ALL, train, wagon)));
+    }
+
+    /**
+     * @see Shunter#detachOneWagon(Train, Wagon)
+     */
+    public synchronized boolean detachOneWagon(Train train, Wagon wagon) {
+        checkInYard(train);
+        int start = reserve(1 + 4 + 4);
+        return checkpointWhenDue(ConcurrentShunter.locked(train, () -> Shunter.detachOneWagon(train, wagon)
+                && writeDetach(start, DETACH_ONE, train, wagon)));
+    }
+
+    /**
+     * Moves a row of wagons like ConcurrentShunter.moveAllFromTrain, with the same capacity check: the row is
+     * only moved when the engine of train to can pull its wagons and the whole row, where
+     * Shunter.moveAllFromTrain accepts some moves that make train to too long.
+     */
+    public synchronized boolean moveAllFromTrain(Train from, Train to, Wagon wagon) {
+        checkInYard(from);
+        checkInYard(to);
+        int start = reserve(1 + 4 + 4 + 4);
+        return checkpointWhenDue(ConcurrentShunter.locked(from, to, () -> Shunter.moveRowFromTrain(from, to, wagon)
+                && writeMove(start, MOVE_ALL, from, to, wagon)));
+    }
+
+    /**
+     * @see Shunter#moveOneWagon(Train, Train, Wagon)
+     */
+    public synchronized boolean moveOneWagon(Train from, Train to, Wagon wagon) {
+        checkInYard(from);
+        checkInYard(to);
+        int start = reserve(1 + 4 + 4 + 4);
+        return checkpointWhenDue(ConcurrentShunter.locked(from, to, () -> Shunter.moveOneWagon(from, to, wagon)
+                && writeMove(start, MOVE_ONE, from, to, wagon)));
+    }
+
+    /**
+     * Writes a snapshot of all trains in the yard and starts a new, empty journal file.
+     * The snapshot replaces the former snapshot only when it has been written completely.
+     *
+     * @throws IOException if the snapshot or the journal file cannot be written
+     */
+    public synchronized void checkpoint() throws IOException {
+        Path snapshotFile = directory.resolve(SNAPSHOT_FILE);
+        Path newSnapshotFile = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(newSnapshotFile), 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(sequence);
+            out.writeInt(yard.getTrains().size());
+            for (Train train : yard.getTrains()) {
+                writeTrain(out, train);
+            }
+        }
+        Files.move(newSnapshotFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // a journal left behind by a crash before the next move only has operations the snapshot already contains
+        Path journalFile = directory.resolve(JOURNAL_FILE);
+        Path newJournalFile = directory.resolve(JOURNAL_FILE + ".tmp");
+        try (FileChannel newChannel = FileChannel.open(newJournalFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(JOURNAL_MAGIC).putLong(sequence);
+            newChannel.write(header.flip());
+            newChannel.force(true);
+        }
+        Files.move(newJournalFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        if (channel != null) {
+            channel.close();
+        }
+        channel = FileChannel.open(journalFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        journal = channel.map(FileChannel.MapMode.READ_WRITE, 0, INITIAL_JOURNAL_SIZE);
+        position = HEADER_SIZE;
+        operationsSinceSnapshot = 0;
+    }
+
+    /**
+     * Writes the journal to disk and closes it.
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        journal.force();
+        channel.close();
+    }
+
+    private boolean hook(byte operation, Train train, Wagon wagon) {
+        checkInYard(train);
+        int wagons = wagon.getNumberOfWagonsAttached() + 1;
+        int start = reserve(1 + 4 + 4 + wagons * WAGON_SIZE);
+        return checkpointWhenDue(ConcurrentShunter.locked(train, () -> {
+            boolean hooked = operation == HOOK_ON_REAR
+                    ? Shunter.hookWagonOnTrainRear(train, wagon)
+                    : Shunter.hookWagonOnTrainFront(train, wagon);
+            if (!hooked) {
+                return false;
+            }
+            journal.position(start + 1);
+            journal.putInt(train.getEngine().getLocNumber());
+            journal.putInt(wagons);
+            putWagons(wagon, wagons);
+            commit(start, operation);
+            return true;
+        }));
+    }
+
+    private boolean writeDetach(int start, byte operation, Train train, Wagon wagon) {
+        journal.position(start + 1);
+        journal.putInt(train.getEngine().getLocNumber());
+        journal.putInt(wagon.getWagonId());
+        commit(start, operation);
+        return true;
+    }
+
+    private boolean writeMove(int start, byte operation, Train from, Train to, Wagon wagon) {
+        journal.position(start + 1);
+        journal.putInt(from.getEngine().getLocNumber());
+        journal.putInt(to.getEngine().getLocNumber());
+        journal.putInt(wagon.getWagonId());
+        commit(start, operation);
+        return true;
+    }
+
+    private void putWagons(Wagon first, int wagons) {
+        Wagon wagon = first;
+        for (int i = 0; i < wagons; i++) {
+            journal.putInt(wagon.getWagonId());
+            journal.put(YardWriter.kindOf(wagon));
+            journal.putInt(YardWriter.capacityOf(wagon));
+            wagon = wagon.getNextWagon();
+        }
+    }
+
+    private void putString(byte[] bytes) {
+        journal.putShort((short) (bytes == null ? -1 : bytes.length));
+        if (bytes != null) {
+            journal.put(bytes);
+        }
+    }
+
+    /**
+     * Makes sure the mapped journal has room for an operation before the operation is done,
+     * so an operation is never done without being written.
+     *
+     * @return the position in the journal file to write the operation to
+     */
+    private int reserve(int size) {
+        if ((long) position + size + 1 > journal.capacity()) {
+            long capacity = journal.capacity();
+            while (capacity < (long) position + size + 1) {
+                capacity *= 2;
+            }
+            if (capacity > Integer.MAX_VALUE) {
+                throw new IllegalStateException("The journal is full, write a snapshot first");
+            }
+            try {
+                journal = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return position;
+    }
+
+    private void commit(int start, byte operation) {
+        // the operation only becomes part of the journal once its first byte is written
+        position = journal.position();
+        journal.put(start, operation);
+        sequence++;
+        operationsSinceSnapshot++;
+    }
+
+    /**
+     * Writes a snapshot when enough operations have been written, only after the last operation
+     * has unlocked its trains, because the snapshot read-locks every train.
+     */
+    private boolean checkpointWhenDue(boolean done) {
+        if (operationsSinceSnapshot >= operationsPerSnapshot) {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return done;
+    }
+
+    private void checkInYard(Train train) {
+        if (train.getYard() != yard) {
+            throw new IllegalArgumentException(String.format("Train %s is not in the yard of the journal", train.getEngine()));
+        }
+    }
+
+    private void addLocNumber(Train train) {
+        int locNumber = train.getEngine().getLocNumber();
+        if (trains.get(locNumber) != null) {
+            throw new IllegalArgumentException(String.format("Locomotive %d is in the yard more than once", locNumber));
+        }
+        trains.put(locNumber, train);
+    }
+
+    private static void writeTrain(DataOutputStream out, Train train) throws IOException {
+        long stamp = train.getLock().readLock();
+        try {
+            writeWagons(out, train);
+        } finally {
+            train.getLock().unlockRead(stamp);
+        }
+    }
+
+    private static void writeWagons(DataOutputStream out, Train train) throws IOException {
+        out.writeInt(train.getEngine().getLocNumber());
+        out.writeInt(train.getEngine().getMaxWagons());
+        writeString(out, encode(train.getOrigin()));
+        writeString(out, encode(train.getDestination()));
+        out.writeInt(train.getNumberOfWagons());
+        for (Wagon wagon : train) {
+            out.writeInt(wagon.getWagonId());
+            out.writeByte(YardWriter.kindOf(wagon));
+            out.writeInt(YardWriter.capacityOf(wagon));
+        }
+    }
+
+    private static void writeString(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeShort(bytes == null ? -1 : bytes.length);
+        if (bytes != null) {
+            out.write(bytes);
+        }
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        return 2 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static byte[] encode(String string) {
+        return string == null ? null : string.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Rebuilds a yard from the snapshot and the journal in a directory.
+     */
+    private static class Replay {
+        private final Yard yard = new Yard();
+        private final IntMap<Train> trains = new IntMap<>();
+        private long sequence;
+
+        private void run(Path directory) throws IOException {
+            readSnapshot(directory.resolve(SNAPSHOT_FILE));
+            readJournal(directory.resolve(JOURNAL_FILE));
+        }
+
+        private void readSnapshot(Path file) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+                if (in.readInt() != SNAPSHOT_MAGIC) {
+                    throw new IOException(String.format("%s is not a snapshot of a yard", file));
+                }
+                sequence = in.readLong();
+                int numberOfTrains = in.readInt();
+                for (int i = 0; i < numberOfTrains; i++) {
+                    Train train = new Train(new Locomotive(in.readInt(), in.readInt()), readString(in), readString(in));
+                    int wagons = in.readInt();
+                    Wagon first = null;
+                    Wagon last = null;
+                    for (int w = 0; w < wagons; w++) {
+                        Wagon wagon = YardReader.newWagon(in.readInt(), in.readByte(), in.readInt());
+                        if (last == null) {
+                            first = wagon;
+                        } else {
+                            last.setNextWagon(wagon);
+                        }
+                        last = wagon;
+                    }
+                    // the yard is not shared yet, the train joins it first so its wagons go straight into its map
+                    addTrain(train);
+                    if (wagons > 0) {
+                        train.hookOnRear(first, last, wagons);
+                    }
+                }
+            }
+        }
+
+        private void readJournal(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer journal = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (journal.remaining() < HEADER_SIZE || journal.getInt() != JOURNAL_MAGIC) {
+                    throw new IOException(String.format("%s is not a journal of a yard", file));
+                }
+                long operation = journal.getLong();
+                while (journal.hasRemaining()) {
+                    byte kind = journal.get();
+                    if (kind == END) {
+                        break;
+                    }
+                    // operations from before the snapshot are only there when the program stopped while checkpointing
+                    boolean apply = operation >= sequence;
+                    replay(journal, kind, apply);
+                    operation++;
+                    if (apply) {
+                        sequence = operation;
+                    }
+                }
+            }
+        }
+
+        private void replay(ByteBuffer journal, byte kind, boolean apply) throws IOException {
+            switch (kind) {
+                case ADD_TRAIN: {
+                    Locomotive engine = new Locomotive(journal.getInt(), journal.getInt());
+                    Train train = new Train(engine, readString(journal), readString(journal));
+                    Wagon first = readWagons(journal, journal.getInt());
+                    if (apply) {
+                        train.setFirstWagon(first);
+                        addTrain(train);
+                    }
+                    break;
+                }
+                case HOOK_ON_REAR:
+                case HOOK_ON_FRONT: {
+                    int locNumber = journal.getInt();
+                    Wagon first = readWagons(journal, journal.getInt());
+                    if (apply) {
+                        Train train = findTrain(locNumber);
+                        check(kind == HOOK_ON_REAR
+                                ? Shunter.hookWagonOnTrainRear(train, first)
+                                : Shunter.hookWagonOnTrainFront(train, first), kind);
+                    }
+                    break;
+                }
+                case DETACH_ALL:
+                case DETACH_ONE: {
+                    int locNumber = journal.getInt();
+                    int wagonId = journal.getInt();
+                    if (apply) {
+                        Train train = findTrain(locNumber);
+                        Wagon wagon = findWagon(train, wagonId);
+                        check(kind == DETACH_ALL
+                                ? Shunter.detachAllFromTrain(train, wagon)
+                                : Shunter.detachOneWagon(train, wagon), kind);
+                    }
+                    break;
+                }
+                case MOVE_ALL:
+                case MOVE_ONE: {
+                    int fromLocNumber = journal.getInt();
+                    int toLocNumber = journal.getInt();
+                    int wagonId = journal.getInt();
+                    if (apply) {
+                        Train from = findTrain(fromLocNumber);
+                        Train to = findTrain(toLocNumber);
+                        Wagon wagon = findWagon(from, wagonId);
+                        check(kind == MOVE_ALL
+                                ? Shunter.moveRowFromTrain(from, to, wagon)
+                                : Shunter.moveOneWagon(from, to, wagon), kind);
+                    }
+                    break;
+                }
+                default:
+                    throw new IOException(String.format("Unknown operation %d in the journal", kind));
+            }
+        }
+
+        private void addTrain(Train train) {
+            trains.put(train.getEngine().getLocNumber(), train);
+            yard.addTrain(train);
+        }
+
+        private Train findTrain(int locNumber) throws IOException {
+            Train train = trains.get(locNumber);
+            if (train == null) {
+                throw new IOException(String.format("Locomotive %d of the journal is not in the yard", locNumber));
+            }
+            return train;
+        }
+
+        private static Wagon findWagon(Train train, int wagonId) throws IOException {
+            int position = train.getPositionOfWagon(wagonId);
+            if (position == -1) {
+                throw new IOException(String.format("Wagon %d of the journal is not on %s", wagonId, train.getEngine()));
+            }
+            return train.getWagonOnPosition(position);
+        }
+
+        private static void check(boolean done, byte kind) throws IOException {
+            if (!done) {
+                throw new IOException(String.format("Operation %d of the journal could not be done again", kind));
+            }
+        }
+
+        private static Wagon readWagons(ByteBuffer journal, int wagons) throws IOException {
+            Wagon first = null;
+            Wagon last = null;
+            for (int i = 0; i < wagons; i++) {
+                Wagon wagon = YardReader.newWagon(journal.getInt(), journal.get(), journal.getInt());
+                if (last == null) {
+                    first = wagon;
+                } else {
+                    last.setNextWagon(wagon);
+                }
+                last = wagon;
+            }
+            return first;
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            int length = in.readShort();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private static String readString(ByteBuffer journal) throws IOException {
+            int length = journal.getShort();
+            if (length < 0) {
+                return null;
+            }
+            if (length > journal.remaining()) {
+                throw new EOFException("The journal ends in the middle of an operation");
+            }
+            byte[] bytes = new byte[length];
+            journal.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is the blueprint of a shunting plan, a list of Shunter operations that is carried out as a whole.
+ * Before any train is changed, the plan checks the capacity of the engines and the kind of wagons for all steps
+ * in one pass over the steps, using the number of wagons the trains will have at each step.
+ * An engine never gets more wagons than it can pull, also not with moveAllFromTrain.
+ * The steps are then carried out by the Shunter. If the Shunter still rejects a step, the steps
+ * that were already carried out are undone, so either all steps of the plan are carried out or none.
+ *
+ * @author Abdul, Ferran
+ */
+public class ShuntingPlan {
+    private final List<Step> steps = new ArrayList<>();
+
+    private enum Operation {
+        HOOK_ON_REAR, HOOK_ON_FRONT, DETACH_ALL, DETACH_ONE, MOVE_ALL, MOVE_ONE
+    }
+
+    /**
+     * One operation of the plan, with what is needed to undo it.
+     */
+    private static class Step {
+        private final Operation operation;
+        private final Train from;
+        private final Train to;
+        private final Wagon wagon;
+        private Wagon previousWagon;
+        private Wagon formerFirstWagon;
+
+        private Step(Operation operation, Train from, Train to, Wagon wagon) {
+            this.operation = operation;
+            this.from = from;
+            this.to = to;
+            this.wagon = wagon;
+        }
+    }
+
+    /**
+     * The wagons a train will have during the validation of the plan. The wagons are kept as segments:
+     * a range of positions of a train as it was before the plan, or of a row of wagons hooked by the plan.
+     * A wagon is looked up in the index of the train it came from, so no train is walked, and the number
+     * of wagons stays known when rows of wagons leave or enter the train.
+     */
+    private static class TrainState {
+        private final List<Segment> segments = new ArrayList<>();
+        private int numberOfWagons;
+
+        private TrainState(Train train) {
+            if (!train.hasNoWagons()) {
+                add(segments.size(), List.of(new Segment(new TrainPositions(train), 1, train.getNumberOfWagons())));
+            }
+        }
+
+        /**
+         * @return the position the wagon will have on the train, or -1 if it will not be on the train
+         */
+        private int positionOf(Wagon wagon) {
+            int before = 0;
+            for (Segment segment : segments) {
+                int position = segment.positions.positionOf(wagon);
+                if (position >= segment.first && position <= segment.last) {
+                    return before + position - segment.first + 1;
+                }
+                before += segment.size();
+            }
+            return -1;
+        }
+
+        /**
+         * Takes the wagon on the position and all its successors off the train.
+         */
+        private List<Segment> cutFrom(int position) {
+            int before = 0;
+            int s = 0;
+            while (before + segments.get(s).size() < position) {
+                before += segments.get(s).size();
+                s++;
+            }
+            Segment segment = segments.get(s);
+            int split = segment.first + position - before - 1;
+            List<Segment> row = new ArrayList<>(segments.subList(s, segments.size()));
+            segments.subList(s, segments.size()).clear();
+            if (split > segment.first) {
+                segments.add(new Segment(segment.positions, segment.first, split - 1));
+                row.set(0, new Segment(segment.positions, split, segment.last));
+            }
+            numberOfWagons = position - 1;
+            return row;
+        }
+
+        /**
+         * Takes only the wagon on the position off the train.
+         */
+        private void removeOne(int position) {
+            List<Segment> rest = cutFrom(position);
+            Segment segment = rest.remove(0);
+            if (segment.first < segment.last) {
+                rest.add(0, new Segment(segment.positions, segment.first + 1, segment.last));
+            }
+            add(segments.size(), rest);
+        }
+
+        private void add(int index, List<Segment> row) {
+            segments.addAll(index, row);
+            numberOfWagons += size(row);
+        }
+
+        private boolean isSuitable(Wagon wagon) {
+            if (segments.isEmpty()) {
+                return true;
+            }
+            Segment first = segments.get(0);
+            return Shunter.isSuitableWagon(first.positions.wagonAt(first.first), wagon);
+        }
+    }
+
+    /**
+     * The wagons on positions first up to and including last of a train or row.
+     */
+    private static class Segment {
+        private final Positions positions;
+        private final int first;
+        private final int last;
+
+        private Segment(Positions positions, int first, int last) {
+            this.positions = positions;
+            this.first = first;
+            this.last = last;
+        }
+
+        private int size() {
+            return last - first + 1;
+        }
+    }
+
+    private static int size(List<Segment> row) {
+        int wagons = 0;
+        for (Segment segment : row) {
+            wagons += segment.size();
+        }
+        return wagons;
+    }
+
+    /**
+     * Where the wagons of a train or row are, positions start at 1.
+     */
+    private interface Positions {
+        int positionOf(Wagon wagon);
+
+        Wagon wagonAt(int position);
+    }
+
+    /**
+     * The positions of the wagons of a train before the plan, from the index of the train.
+     */
+    private static class TrainPositions implements Positions {
+        private final Train train;
+
+        private TrainPositions(Train train) {
+            this.train = train;
+        }
+
+        @Override
+        public int positionOf(Wagon wagon) {
+            return train.getPositionOfWagon(wagon);
+        }
+
+        @Override
+        public Wagon wagonAt(int position) {
+            return train.getWagonOnPosition(position);
+        }
+    }
+
+    /**
+     * The positions of the wagons of a row that is hooked by the plan, the Shunter walks the row as well.
+     */
+    private static class RowPositions implements Positions {
+        private final Map<Wagon, Integer> positions = new IdentityHashMap<>();
+        private final List<Wagon> wagons = new ArrayList<>();
+
+        private RowPositions(Wagon first, int numberOfWagons) {
+            Wagon wagon = first;
+            for (int position = 1; position <= numberOfWagons; position++) {
+                positions.put(wagon, position);
+                wagons.add(wagon);
+                wagon = wagon.getNextWagon();
+            }
+        }
+
+        @Override
+        public int positionOf(Wagon wagon) {
+            return positions.getOrDefault(wagon, -1);
+        }
+
+        @Override
+        public Wagon wagonAt(int position) {
+            return wagons.get(position - 1);
+        }
+    }
+
+    /**
+     * Adds a step that hooks a wagon on the rear of a train, see {@link Shunter#hookWagonOnTrainRear(Train, Wagon)}.
+     *
+     * @param train the train to hook the wagon on
+     * @param wagon the wagon (with its attached wagons) to hook
+     */
+    public void hookWagonOnTrainRear(Train train, Wagon wagon) {
+        steps.add(new Step(Operation.HOOK_ON_REAR, null, train, wagon));
+    }
+
+    /**
+     * Adds a step that hooks a wagon on the front of a train, see {@link Shunter#hookWagonOnTrainFront(Train, Wagon)}.
+     *
+     * @param train the train to hook the wagon on
+     * @param wagon the wagon (with its attached wagons) to hook
+     */
+    public void hookWagonOnTrainFront(Train train, Wagon wagon) {
+        steps.add(new Step(Operation.HOOK_ON_FRONT, null, train, wagon));
+    }
+
+    /**
+     * Adds a step that detaches a wagon with all its successors, see {@link Shunter#detachAllFromTrain(Train, Wagon)}.
+     *
+     * @param train the train to detach the wagons from
+     * @param wagon the first wagon to detach
+     */
+    public void detachAllFromTrain(Train train, Wagon wagon) {
+        steps.add(new Step(Operation.DETACH_ALL, train, null, wagon));
+    }
+
+    /**
+     * Adds a step that detaches one wagon, see {@link Shunter#detachOneWagon(Train, Wagon)}.
+     *
+     * @param train the train to detach the wagon from
+     * @param wagon the wagon to detach
+     */
+    public void detachOneWagon(Train train, Wagon wagon) {
+        steps.add(new Step(Operation.DETACH_ONE, train, null, wagon));
+    }
+
+    /**
+     * Adds a step that moves a wagon with all its successors, see {@link Shunter#moveAllFromTrain(Train, Train, Wagon)}.
+     *
+     * @param from  the train to move the wagons from
+     * @param to    the train to move the wagons to
+     * @param wagon the first wagon to move
+     */
+    public void moveAllFromTrain(Train from, Train to, Wagon wagon) {
+        steps.add(new Step(Operation.MOVE_ALL, from, to, wagon));
+    }
+
+    /**
+     * Adds a step that moves one wagon, see {@link Shunter#moveOneWagon(Train, Train, Wagon)}.
+     *
+     * @param from  the train to move the wagon from
+     * @param to    the train to move the wagon to
+     * @param wagon the wagon to move
+     */
+    public void moveOneWagon(Train from, Train to, Wagon wagon) {
+        steps.add(new Step(Operation.MOVE_ONE, from, to, wagon));
+    }
+
+    /**
+     * @return the number of steps in this plan
+     */
+    public int getNumberOfSteps() {
+        return steps.size();
+    }
+
+    /**
+     * Checks all steps in one pass, without changing any train. The number of wagons and the kind of wagons
+     * of every train are followed through all steps, also when rows of wagons leave or enter a train.
+     *
+     * @return false if a step will be rejected by the Shunter, true otherwise
+     */
+    public boolean validate() {
+        Map<Train, TrainState> states = new IdentityHashMap<>();
+        // the rows that were detached earlier in the plan, by their first wagon
+        Map<Wagon, List<Segment>> detached = new IdentityHashMap<>();
+
+        for (Step step : steps) {
+            TrainState from = step.from == null ? null : states.computeIfAbsent(step.from, TrainState::new);
+            TrainState to = step.to == null ? null : states.computeIfAbsent(step.to, TrainState::new);
+            int position = from == null ? 0 : from.positionOf(step.wagon);
+            if (position == -1) {
+                return false;
+            }
+
+            switch (step.operation) {
+                case HOOK_ON_REAR:
+                case HOOK_ON_FRONT: {
+                    List<Segment> row = detached.remove(step.wagon);
+                    if (row == null) {
+                        int wagons = step.wagon.getNumberOfWagonsAttached() + 1;
+                        row = List.of(new Segment(new RowPositions(step.wagon, wagons), 1, wagons));
+                    }
+                    if (!to.isSuitable(step.wagon)
+                            || !Shunter.hasPlaceForWagons(step.to.getEngine(), to.numberOfWagons, size(row))) {
+                        return false;
+                    }
+                    to.add(step.operation == Operation.HOOK_ON_REAR ? to.segments.size() : 0, row);
+                    break;
+                }
+                case DETACH_ONE:
+                    from.removeOne(position);
+                    detached.put(step.wagon, List.of(new Segment(new RowPositions(step.wagon, 1), 1, 1)));
+                    break;
+                case MOVE_ONE:
+                    if (!to.isSuitable(step.wagon) || !Shunter.hasPlaceForOneWagon(step.to.getEngine(), to.numberOfWagons)) {
+                        return false;
+                    }
+                    from.removeOne(position);
+                    to.add(to.segments.size(), List.of(new Segment(new RowPositions(step.wagon, 1), 1, 1)));
+                    break;
+                case DETACH_ALL:
+                    detached.put(step.wagon, from.cutFrom(position));
+                    break;
+                default: {
+                    int wagons = from.numberOfWagons - position + 1;
+                    if (!to.isSuitable(step.wagon)
+                            || !Shunter.hasPlaceForWagons(step.to.getEngine(), to.numberOfWagons, wagons)) {
+                        return false;
+                    }
+                    List<Segment> row = from.cutFrom(position);
+                    to.add(to.segments.size(), row);
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Validates the plan and carries out all steps with the Shunter.
+     * When a step is rejected, all steps that were carried out before it are undone in reverse order.
+     *
+     * @return true if all steps are carried out, false if no train has been changed
+     */
+    public boolean execute() {
+        if (!validate()) {
+            return false;
+        }
+        for (int i = 0; i < steps.size(); i++) {
+            if (!apply(steps.get(i))) {
+                for (int j = i - 1; j >= 0; j--) {
+                    undo(steps.get(j));
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean apply(Step step) {
+        switch (step.operation) {
+            case HOOK_ON_REAR:
+                return Shunter.hookWagonOnTrainRear(step.to, step.wagon);
+            case HOOK_ON_FRONT:
+                step.formerFirstWagon = step.to.getFirstWagon();
+                return Shunter.hookWagonOnTrainFront(step.to, step.wagon);
+            case DETACH_ALL:
+                return Shunter.detachAllFromTrain(step.from, step.wagon);
+            case DETACH_ONE:
+                step.previousWagon = step.wagon.getPreviousWagon();
+                return Shunter.detachOneWagon(step.from, step.wagon);
+            case MOVE_ALL:
+                return Shunter.moveRowFromTrain(step.from, step.to, step.wagon);
+            default:
+                step.previousWagon = step.wagon.getPreviousWagon();
+                return Shunter.moveOneWagon(step.from, step.to, step.wagon);
+        }
+    }
+
+    /**
+     * Undoes a step that has been carried out, the checks of the Shunter are not needed
+     * because the trains are brought back in a state they have been in before.
+     */
+    private static void undo(Step step) {
+        switch (step.operation) {
+            case HOOK_ON_REAR:
+                step.to.detachFrom(step.wagon, step.to.getPositionOfWagon(step.wagon)).discard();
+                break;
+            case HOOK_ON_FRONT:
+                if (step.formerFirstWagon == null) {
+                    step.to.detachFrom(step.wagon, 1).discard();
+                } else {
+                    int formerFirstPosition = step.to.getPositionOfWagon(step.formerFirstWagon);
+                    Train.Row formerWagons = step.to.detachFrom(step.formerFirstWagon, formerFirstPosition);
+                    step.to.detachFrom(step.wagon, 1).discard();
+                    step.to.hookOnRear(formerWagons);
+                }
+                break;
+            case DETACH_ALL:
+                step.from.hookOnRear(step.wagon);
+                break;
+            case DETACH_ONE:
+                step.from.insertAfter(step.previousWagon, step.wagon);
+                break;
+            case MOVE_ALL:
+                step.from.hookOnRear(step.to.detachFrom(step.wagon, step.to.getPositionOfWagon(step.wagon)));
+                break;
+            default:
+                step.to.detachOne(step.wagon);
+                step.from.insertAfter(step.previousWagon, step.wagon);
+                break;
+        }
+    }
+}
@@ -2,6 +2,13 @@ package model;
 
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * This class is the blueprint of a train.
@@ -12,11 +19,19 @@ import java.util.NoSuchElementException;
  */
 
 public class Train implements Iterable<Wagon> {
+    private static final AtomicLong serialNumbers = new AtomicLong();
+
     private Locomotive engine;
     private Wagon firstWagon;
+    private Wagon lastWagon;
     private String destination;
     private String origin;
     private int numberOfWagons;
+    private final WagonIndex index = new WagonIndex(this);
+    private Yard yard;
+    private final StampedLock lock = new StampedLock();
+    private final long serialNumber = serialNumbers.getAndIncrement();
+    private volatile TrainSnapshot snapshot;
 
     public Train(Locomotive engine, String origin, String destination) {
         this.engine = engine;
@@ -54,6 +69,70 @@ public class Train implements Iterable<Wagon> {
         }
     }
 
+    /**
+     * This class implements the Spliterator interface, so streams of the wagons
+     * of a Train object can be processed in parallel. A spliterator covers the wagons
+     * from one position up to another, it is split in two halves by looking up the
+     * wagon in the middle in the index of the train.
+     */
+    private class TrainSpliterator implements Spliterator<Wagon> {
+        private static final int MIN_SPLIT_SIZE = 1024;
+        private Wagon currentWagon;
+        private int position;
+        private final int endPosition;
+
+        private TrainSpliterator(Wagon currentWagon, int position, int endPosition) {
+            this.currentWagon = currentWagon;
+            this.position = position;
+            this.endPosition = endPosition;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Wagon> action) {
+            if (position >= endPosition) {
+                return false;
+            }
+            Wagon wagon = currentWagon;
+            currentWagon = wagon.getNextWagon();
+            position++;
+            action.accept(wagon);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Wagon> action) {
+            while (position < endPosition) {
+                Wagon wagon = currentWagon;
+                currentWagon = wagon.getNextWagon();
+                position++;
+                action.accept(wagon);
+            }
+        }
+
+        @Override
+        public Spliterator<Wagon> trySplit() {
+            int remaining = endPosition - position;
+            if (remaining < MIN_SPLIT_SIZE) {
+                return null;
+            }
+            int middle = position + remaining / 2;
+            TrainSpliterator firstHalf = new TrainSpliterator(currentWagon, position, middle);
+            currentWagon = index.wagonAt(middle);
+            position = middle;
+            return firstHalf;
+        }
+
+        @Override
+        public long estimateSize() {
+            return endPosition - position;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL;
+        }
+    }
+
     /**
      * Gets the firstWagon attribute value of this train.
      *
@@ -63,26 +142,70 @@ public class Train implements Iterable<Wagon> {
         return firstWagon;
     }
 
+    /**
+     * Gets the last wagon of this train without walking the chain of wagons.
+     *
+     * @return the lastWagon object, or null if the train has no wagons
+     */
+    public Wagon getLastWagon() {
+        return lastWagon;
+    }
+
     /**
      * Sets the firstWagon attribute value of this train.
+     * The last wagon and the number of wagons are recalculated from the new row of wagons.
      *
      * @param firstWagon the new Wagon object
      */
     public void setFirstWagon(Wagon firstWagon) {
         this.firstWagon = firstWagon;
+        resetNumberOfWagons();
     }
 
     /**
-     * Reset the number of wagons by setting the number of wagons again.
+     * Reset the number of wagons by walking the whole row of wagons again.
+     * The Shunter keeps the number of wagons, the last wagon and the index of wagons up to date itself,
+     * so this is only needed after wagons have been linked or unlinked directly.
      */
     public void resetNumberOfWagons() {
        /*  when wagons are hooked to or detached from a train,
          the number of wagons of the train should be reset
          this method does the calculation */
+        long start = ShunterMetrics.start();
         numberOfWagons = 0;
+        lastWagon = null;
+        index.clear();
         if (!hasNoWagons()) {
-            numberOfWagons = firstWagon.getNumberOfWagonsAttached() + 1;
+            int wagons = firstWagon.getNumberOfWagonsAttached() + 1;
+            index.append(firstWagon, wagons);
+            lastWagon = firstWagon.getLastWagonAttached();
+            numberOfWagons = wagons;
+        }
+        if (snapshot != null) {
+            snapshot = TrainSnapshot.of(firstWagon, numberOfWagons, snapshot.getVersion() + 1);
+        }
+        // the whole row of wagons is walked
+        ShunterMetrics.accepted(ShunterMetrics.Operation.RESET_NUMBER_OF_WAGONS, numberOfWagons, start);
+    }
+
+    /**
+     * Shunter.hookWagonOnWagon refuses wagons on a train, but Wagon.setNextWagon can still link wagons
+     * directly onto the last wagon of a train. This method moves the last wagon forward over those wagons
+     * and adds them to the index. It changes the train, so only the Shunter calls it, at the start of every
+     * operation, when the ConcurrentShunter is used with the train write-locked.
+     */
+    void syncLastWagon() {
+        if (lastWagon == null || !lastWagon.hasNextWagon()) {
+            return;
         }
+        Wagon first = lastWagon.getNextWagon();
+        int wagons = first.getNumberOfWagonsAttached() + 1;
+        index.append(first, wagons);
+        if (snapshot != null) {
+            snapshot = snapshot.append(first, wagons);
+        }
+        lastWagon = first.getLastWagonAttached();
+        numberOfWagons += wagons;
     }
 
     /**
@@ -92,6 +215,306 @@ public class Train implements Iterable<Wagon> {
         return numberOfWagons;
     }
 
+    /**
+     * Gets a snapshot of the wagons of this train that will never change, also not when this train is shunted.
+     * The first call makes the train publish a new snapshot after every Shunter operation, which costs
+     * O(log n) extra for every operation. From then on getting a snapshot costs O(1) and needs no lock,
+     * so threads that only read can use snapshots while the ConcurrentShunter changes the train.
+     *
+     * @return the snapshot of the wagons of this train after the last Shunter operation
+     */
+    public TrainSnapshot getSnapshot() {
+        TrainSnapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        // the first snapshot is built with the train locked, shunting threads cannot change it meanwhile
+        long stamp = lock.readLock();
+        try {
+            synchronized (this) {
+                if (snapshot == null) {
+                    snapshot = TrainSnapshot.of(firstWagon, numberOfWagons, 0);
+                }
+                return snapshot;
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * A row of wagons that has been detached from a train, together with its part of the index
+     * and of the snapshot of the train, so the row can be hooked on another train without walking it.
+     * A row that is not hooked on another train should be discarded.
+     */
+    static class Row {
+        private final Wagon first;
+        private final Wagon last;
+        private final int wagons;
+        private final WagonIndex.Node index;
+        private final WagonIndex source;
+        private final TrainSnapshot snapshot;
+
+        private Row(Wagon first, Wagon last, int wagons, WagonIndex.Node index, WagonIndex source, TrainSnapshot snapshot) {
+            this.first = first;
+            this.last = last;
+            this.wagons = wagons;
+            this.index = index;
+            this.source = source;
+            this.snapshot = snapshot;
+        }
+
+        /**
+         * Removes the wagons of this row from the index of the train they were detached from,
+         * so they cannot be looked up anymore.
+         */
+        void discard() {
+            source.discard(index);
+        }
+    }
+
+    /* the methods below are used by the Shunter to keep the last wagon, the number of wagons,
+       the index of wagons and the snapshot up to date */
+
+    /**
+     * Hooks a row of wagons on the rear of this train.
+     * Only the hooked row is walked, the wagons already on the train are not.
+     *
+     * @param wagon the first wagon of the row
+     */
+    void hookOnRear(Wagon wagon) {
+        int wagons = wagon.getNumberOfWagonsAttached() + 1;
+        index.append(wagon, wagons);
+        if (snapshot != null) {
+            snapshot = snapshot.append(wagon, wagons);
+        }
+        link(wagon, wagon.getLastWagonAttached(), wagons);
+    }
+
+    /**
+     * Hooks a row of wagons that was detached from another train on the rear of this train.
+     * The row is not walked, its last wagon, length and index are already known.
+     *
+     * @param row the row, as returned by {@link #detachFrom(Wagon, int)}
+     */
+    void hookOnRear(Row row) {
+        index.append(row.index, row.source);
+        if (snapshot != null) {
+            snapshot = row.snapshot == null ? snapshot.append(row.first, row.wagons) : snapshot.append(row.snapshot);
+        }
+        link(row.first, row.last, row.wagons);
+    }
+
+    /**
+     * Hooks a row of wagons on the rear of this train when its last wagon and length are already known,
+     * as they are for a train that is read from a file. The row is walked once, to add it to the index.
+     *
+     * @param first  the first wagon of the row
+     * @param last   the last wagon of the row
+     * @param wagons the number of wagons in the row
+     */
+    void hookOnRear(Wagon first, Wagon last, int wagons) {
+        index.append(first, wagons);
+        if (snapshot != null) {
+            snapshot = snapshot.append(first, wagons);
+        }
+        link(first, last, wagons);
+    }
+
+    private void link(Wagon first, Wagon last, int wagons) {
+        if (hasNoWagons()) {
+            first.setPreviousWagon(null);
+            firstWagon = first;
+        } else {
+            lastWagon.setNextWagon(first);
+        }
+        lastWagon = last;
+        numberOfWagons += wagons;
+    }
+
+    /**
+     * Hooks a row of wagons on the front of this train, the former first wagon
+     * is hooked on the last wagon of the row.
+     *
+     * @param wagon the first wagon of the row
+     */
+    void hookOnFront(Wagon wagon) {
+        int wagons = wagon.getNumberOfWagonsAttached() + 1;
+        Wagon last = wagon.getLastWagonAttached();
+        index.prepend(wagon, wagons);
+        if (snapshot != null) {
+            snapshot = snapshot.prepend(wagon, wagons);
+        }
+        wagon.setPreviousWagon(null);
+        if (hasNoWagons()) {
+            lastWagon = last;
+        } else {
+            last.setNextWagon(firstWagon);
+        }
+        firstWagon = wagon;
+        numberOfWagons += wagons;
+    }
+
+    /**
+     * Detaches a wagon with all its successors from this train.
+     *
+     * @param wagon    the wagon to detach
+     * @param position the position of the wagon on this train
+     * @return the detached row, so it can be hooked on another train without walking it
+     */
+    Row detachFrom(Wagon wagon, int position) {
+        TrainSnapshot rowSnapshot = null;
+        if (snapshot != null) {
+            TrainSnapshot[] parts = snapshot.split(position - 1);
+            snapshot = parts[0];
+            rowSnapshot = parts[1];
+        }
+        Row row = new Row(wagon, lastWagon, numberOfWagons - position + 1, index.splitFrom(position), index, rowSnapshot);
+        if (wagon.hasPreviousWagon()) {
+            lastWagon = wagon.getPreviousWagon();
+            lastWagon.setNextWagon(null);
+            wagon.setPreviousWagon(null);
+        } else {
+            firstWagon = null;
+            lastWagon = null;
+        }
+        numberOfWagons = position - 1;
+        return row;
+    }
+
+    /**
+     * Detaches one wagon from this train and hooks its successor on its predecessor.
+     *
+     * @param wagon the wagon to detach
+     */
+    void detachOne(Wagon wagon) {
+        if (snapshot != null) {
+            snapshot = snapshot.remove(index.positionOf(wagon));
+        }
+        index.remove(wagon);
+        Wagon prevWagon = wagon.getPreviousWagon();
+        Wagon nextWagon = wagon.getNextWagon();
+        if (prevWagon == null) {
+            firstWagon = nextWagon;
+            if (nextWagon != null) {
+                nextWagon.setPreviousWagon(null);
+            }
+        } else {
+            prevWagon.setNextWagon(nextWagon);
+        }
+        if (wagon == lastWagon) {
+            lastWagon = prevWagon;
+        }
+        wagon.setPreviousWagon(null);
+        wagon.setNextWagon(null);
+        numberOfWagons--;
+    }
+
+    /**
+     * Hooks one wagon directly behind a wagon of this train.
+     *
+     * @param previous the wagon to hook the wagon on, or null to hook the wagon on the front of this train
+     * @param wagon    the wagon to hook, it should not have other wagons attached
+     */
+    void insertAfter(Wagon previous, Wagon wagon) {
+        if (previous == null) {
+            hookOnFront(wagon);
+            return;
+        }
+        int position = index.positionOf(previous) + 1;
+        index.insert(position, wagon);
+        if (snapshot != null) {
+            snapshot = snapshot.insert(position, wagon);
+        }
+        Wagon nextWagon = previous.getNextWagon();
+        previous.setNextWagon(wagon);
+        wagon.setNextWagon(nextWagon);
+        if (previous == lastWagon) {
+            lastWagon = wagon;
+        }
+        numberOfWagons++;
+    }
+
+    /**
+     * Reverses the order of the wagons of this train, the last wagon becomes the first.
+     * Every wagon is visited once, the wagons stay in the index, only the order of the index changes.
+     */
+    void reverse() {
+        if (hasNoWagons()) {
+            return;
+        }
+        Wagon wagon = firstWagon;
+        while (wagon != null) {
+            Wagon nextWagon = wagon.getNextWagon();
+            // the next wagon becomes the previous wagon when it is hooked on this wagon in the next round
+            wagon.setNextWagon(wagon.getPreviousWagon());
+            wagon = nextWagon;
+        }
+        lastWagon.setPreviousWagon(null);
+        wagon = firstWagon;
+        firstWagon = lastWagon;
+        lastWagon = wagon;
+        index.reverse();
+        if (snapshot != null) {
+            snapshot = TrainSnapshot.of(firstWagon, numberOfWagons, snapshot.getVersion() + 1);
+        }
+    }
+
+    /**
+     * Looks up exactly this wagon, another wagon with the same wagonId does not count.
+     *
+     * @param wagon the wagon to find
+     * @return the position of the wagon, or -1 if the wagon is not on this train
+     */
+    int getPositionOfWagon(Wagon wagon) {
+        return index.positionOf(wagon);
+    }
+
+    /**
+     * @return the yard this train is in, or null if the train is not in a yard
+     */
+    public Yard getYard() {
+        return yard;
+    }
+
+    /**
+     * Sets the yard of this train, only used by {@link Yard#addTrain(Train)}.
+     *
+     * @param yard the yard the train is added to
+     */
+    void setYard(Yard yard) {
+        index.joinYard(yard);
+        this.yard = yard;
+    }
+
+    /**
+     * @return where this train departs
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * @return where this train goes to
+     */
+    public String getDestination() {
+        return destination;
+    }
+
+    /**
+     * @return the lock that is used by the ConcurrentShunter to guard this train
+     */
+    StampedLock getLock() {
+        return lock;
+    }
+
+    /**
+     * @return a number that is unique for every train, trains are always locked in the order of this number
+     */
+    long getSerialNumber() {
+        return serialNumber;
+    }
+
     /**
      * @return the Locomotive object
      */
@@ -124,9 +547,9 @@ public class Train implements Iterable<Wagon> {
     }
 
     /**
-     * While there are wagons in this train look for every
-     * wagon if this wagon has the same position as given
-     * in the parameter
+     * Looks up the wagon in the index of this train, which
+     * maps the wagonId to the wagon and knows its position
+     * in O(log n) without walking the wagons.
      *
      * @param wagonId the wagonId of the Wagon object
      * @return the position of the wagon with the same wagonId
@@ -135,33 +558,19 @@ public class Train implements Iterable<Wagon> {
         // find a wagon on a train by id, return the position (first wagon had position 1)
         // if not found, than return -1
 
-        if (!hasNoWagons()) {
-            int position = 1;
-            Wagon wagon = firstWagon;
-            if (getFirstWagon().getWagonId() == wagonId) {
-                return position;
-            } else {
-                while (wagon.hasNextWagon()) {
-                    if (wagon.getWagonId() != wagonId) {
-                        position++;
-
-                    } else {
-                        return position;
-                    }
-                    wagon = wagon.getNextWagon();
-                }
-                if (wagon.getWagonId() == wagonId) {
-                    return position;
-                }
-                return -1;
-            }
+        long start = ShunterMetrics.start();
+        int position = index.positionOf(wagonId);
+        if (position == -1) {
+            ShunterMetrics.rejected(ShunterMetrics.Operation.POSITION_OF_WAGON, ShunterMetrics.Reason.NOT_ON_TRAIN, start);
+        } else {
+            ShunterMetrics.accepted(ShunterMetrics.Operation.POSITION_OF_WAGON, 0, start);
         }
-        return -1;
+        return position;
     }
 
     /**
-     * Look for each position in the set of wagons of this train
-     * and check if the position equals the given parameter.
+     * Looks up the wagon on the given position in the
+     * index of this train in O(log n).
      *
      * @param position the position as an int of the wagon object
      * @return the wagon on the given position
@@ -172,28 +581,19 @@ public class Train implements Iterable<Wagon> {
          position of wagons start at 1 (firstWagon of train)
          use exceptions to handle a position that does not exist */
 
-        int pos = 0;
-        if (position == 1) {
-            return getFirstWagon();
-        } else {
-            if (firstWagon.hasNextWagon()) {
-                Wagon wagon = firstWagon.getNextWagon();
-                pos++;
-                if (position != pos && !wagon.hasNextWagon()) {
-                    throw new IndexOutOfBoundsException();
-                }
-                while (position != pos && wagon.hasNextWagon()) {
-                    pos++;
-                    wagon = wagon.getNextWagon();
-                }
-                return wagon;
-            }
-            return getFirstWagon();
+        long start = ShunterMetrics.start();
+        if (position < 1 || position > getNumberOfWagons()) {
+            ShunterMetrics.rejected(ShunterMetrics.Operation.WAGON_ON_POSITION, ShunterMetrics.Reason.NOT_ON_TRAIN, start);
+            throw new IndexOutOfBoundsException(String.format("Position %d is not on %s", position, engine));
         }
+        Wagon wagon = index.wagonAt(position);
+        ShunterMetrics.accepted(ShunterMetrics.Operation.WAGON_ON_POSITION, 0, start);
+        return wagon;
     }
 
     /**
-     * Loop through each wagon of this train and sum up the number of seats
+     * The number of seats is kept up to date by the index of this
+     * train whenever wagons are hooked or detached, so no wagon is visited.
      *
      * @return the number of seats of the whole train
      */
@@ -201,31 +601,20 @@ public class Train implements Iterable<Wagon> {
         /* give the total number of seats on a passenger train
          for freight trains the result should be 0 */
 
-        if (isPassengerTrain()) {
-            int totalSeats = 0;
-            for (Wagon wagon : this) {
-                totalSeats += ((PassengerWagon) wagon).getNumberOfSeats();
-            }
-            return totalSeats;
-        } else return 0;
+        return isPassengerTrain() ? (int) index.getNumberOfSeats() : 0;
     }
 
     /**
-     * Loop through each wagon of this train and sum up the weight of each wagon
+     * The total maximum weight is kept up to date by the index of this
+     * train whenever wagons are hooked or detached, so no wagon is visited.
      *
      * @return the total weight of the whole set of wagons
      */
     public int getTotalMaxWeight() {
         /* give the total maximum weight of a freight train
          for passenger trains the result should be 0 */
-        if (isFreightTrain()) {
-            int totalMaxWeight = 0;
-            for (Wagon wagon : this) {
-                totalMaxWeight += ((FreightWagon) wagon).getMaxWeight();
-            }
-            return totalMaxWeight;
-        }else return 0;
 
+        return isFreightTrain() ? (int) index.getTotalMaxWeight() : 0;
     }
 
     /**
@@ -236,6 +625,36 @@ public class Train implements Iterable<Wagon> {
         return new TrainItertor();
     }
 
+    /**
+     * @return a Spliterator object which knows the number of wagons and can be split at any position
+     */
+    @Override
+    public Spliterator<Wagon> spliterator() {
+        int numberOfWagons = getNumberOfWagons();
+        return new TrainSpliterator(firstWagon, 1, numberOfWagons + 1);
+    }
+
+    /**
+     * @return a sequential Stream of the wagons of this train
+     */
+    public Stream<Wagon> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * @return a parallel Stream of the wagons of this train, it is split over the common fork/join pool
+     */
+    public Stream<Wagon> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * @return the wagonIds of the wagons of this train in the order of the wagons, call parallel() to split it
+     */
+    public IntStream wagonIds() {
+        return stream().mapToInt(Wagon::getWagonId);
+    }
+
     /**
      * @return a String which prints this trains attributes
      */
@@ -248,7 +667,7 @@ public class Train implements Iterable<Wagon> {
             result.append(next.toString());
             next = next.getNextWagon();
         }
-        result.append(String.format(" with %d wagons and %d seats from %s to %s", numberOfWagons, getNumberOfSeats(), origin, destination));
+        result.append(String.format(" with %d wagons and %d seats from %s to %s", getNumberOfWagons(), getNumberOfSeats(), origin, destination));
         return result.toString();
     }
 }
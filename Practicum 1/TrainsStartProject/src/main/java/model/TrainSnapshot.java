@@ -0,0 +1,261 @@
+package model;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class is the blueprint of a snapshot of the wagons of a train, a list of wagons that never changes.
+ * Every Shunter operation on a train that publishes snapshots creates a new snapshot that shares all but
+ * O(log n) nodes with the previous one, so taking a snapshot costs nothing and a thread that reads a
+ * snapshot never has to lock the train, even while other threads are shunting it.
+ * The snapshot is a persistent treap: a node is never changed once it is part of a snapshot,
+ * every change copies the nodes on the path from the root to the changed wagons.
+ *
+ * @author Abdul, Ferran
+ */
+public class TrainSnapshot implements Iterable<Wagon> {
+    private final Node root;
+    private final long version;
+
+    /**
+     * A node of the treap. The fields are only written while a new snapshot is built,
+     * before the snapshot is published.
+     */
+    private static class Node {
+        private final Wagon wagon;
+        private final int priority;
+        private final int seats;
+        private final int maxWeight;
+        private Node left;
+        private Node right;
+        private int size;
+        private long numberOfSeats;
+        private long totalMaxWeight;
+
+        private Node(Wagon wagon) {
+            this.wagon = wagon;
+            this.priority = ThreadLocalRandom.current().nextInt();
+            this.seats = wagon instanceof PassengerWagon ? ((PassengerWagon) wagon).getNumberOfSeats() : 0;
+            this.maxWeight = wagon instanceof FreightWagon ? ((FreightWagon) wagon).getMaxWeight() : 0;
+            update(this);
+        }
+
+        private Node(Node node, Node left, Node right) {
+            this.wagon = node.wagon;
+            this.priority = node.priority;
+            this.seats = node.seats;
+            this.maxWeight = node.maxWeight;
+            this.left = left;
+            this.right = right;
+            update(this);
+        }
+    }
+
+    private TrainSnapshot(Node root, long version) {
+        this.root = root;
+        this.version = version;
+    }
+
+    /**
+     * @return the number of the Shunter operations that led to this snapshot since the train started publishing
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the number of wagons in this snapshot
+     */
+    public int getNumberOfWagons() {
+        return size(root);
+    }
+
+    /**
+     * @return the number of seats of all passenger wagons in this snapshot
+     */
+    public int getNumberOfSeats() {
+        return root == null ? 0 : (int) root.numberOfSeats;
+    }
+
+    /**
+     * @return the total maximum weight of all freight wagons in this snapshot
+     */
+    public int getTotalMaxWeight() {
+        return root == null ? 0 : (int) root.totalMaxWeight;
+    }
+
+    /**
+     * @param position the position of the wagon, starting at 1
+     * @return the wagon on the given position
+     * @throws IndexOutOfBoundsException if the position is not in this snapshot
+     */
+    public Wagon getWagonOnPosition(int position) {
+        if (position < 1 || position > size(root)) {
+            throw new IndexOutOfBoundsException(String.format("Position %d is not in the snapshot", position));
+        }
+        Node node = root;
+        int index = position - 1;
+        while (index != size(node.left)) {
+            if (index < size(node.left)) {
+                node = node.left;
+            } else {
+                index -= size(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return node.wagon;
+    }
+
+    /**
+     * @return an Iterator object which iterates through the wagons in this snapshot, in the order of the train
+     */
+    @Override
+    public Iterator<Wagon> iterator() {
+        return new Iterator<>() {
+            private final Deque<Node> path = new ArrayDeque<>();
+            private Node next = root;
+
+            @Override
+            public boolean hasNext() {
+                return next != null || !path.isEmpty();
+            }
+
+            @Override
+            public Wagon next() {
+                while (next != null) {
+                    path.push(next);
+                    next = next.left;
+                }
+                if (path.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Node node = path.pop();
+                next = node.right;
+                return node.wagon;
+            }
+        };
+    }
+
+    /* the methods below are used by Train to publish the next snapshot after a Shunter operation */
+
+    TrainSnapshot append(Wagon first, int wagons) {
+        return new TrainSnapshot(merge(root, build(first, wagons)), version + 1);
+    }
+
+    TrainSnapshot prepend(Wagon first, int wagons) {
+        return new TrainSnapshot(merge(build(first, wagons), root), version + 1);
+    }
+
+    TrainSnapshot append(TrainSnapshot row) {
+        return new TrainSnapshot(merge(root, row.root), version + 1);
+    }
+
+    TrainSnapshot insert(int position, Wagon wagon) {
+        Node[] parts = split(root, position - 1);
+        return new TrainSnapshot(merge(merge(parts[0], new Node(wagon)), parts[1]), version + 1);
+    }
+
+    TrainSnapshot remove(int position) {
+        Node[] parts = split(root, position - 1);
+        Node[] rest = split(parts[1], 1);
+        return new TrainSnapshot(merge(parts[0], rest[1]), version + 1);
+    }
+
+    /**
+     * @param count the number of wagons to keep
+     * @return the snapshot with the first count wagons and the snapshot with the rest of the wagons
+     */
+    TrainSnapshot[] split(int count) {
+        Node[] parts = split(root, count);
+        return new TrainSnapshot[]{new TrainSnapshot(parts[0], version + 1), new TrainSnapshot(parts[1], 0)};
+    }
+
+    /**
+     * Builds a snapshot of a row of wagons in linear time.
+     */
+    static TrainSnapshot of(Wagon first, int wagons, long version) {
+        return new TrainSnapshot(build(first, wagons), version);
+    }
+
+    private static Node build(Wagon first, int wagons) {
+        // every new node is hooked on the right spine of the tree built so far, the nodes are not published yet
+        Deque<Node> rightSpine = new ArrayDeque<>();
+        Wagon wagon = first;
+        for (int i = 0; i < wagons; i++) {
+            Node node = new Node(wagon);
+            Node last = null;
+            while (!rightSpine.isEmpty() && rightSpine.peek().priority < node.priority) {
+                last = rightSpine.pop();
+            }
+            node.left = last;
+            if (!rightSpine.isEmpty()) {
+                rightSpine.peek().right = node;
+            }
+            rightSpine.push(node);
+            wagon = wagon.getNextWagon();
+        }
+        Node tree = rightSpine.peekLast();
+        updateAll(tree);
+        return tree;
+    }
+
+    private static void updateAll(Node node) {
+        if (node != null) {
+            updateAll(node.left);
+            updateAll(node.right);
+            update(node);
+        }
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static void update(Node node) {
+        node.size = size(node.left) + size(node.right) + 1;
+        node.numberOfSeats = node.seats;
+        node.totalMaxWeight = node.maxWeight;
+        if (node.left != null) {
+            node.numberOfSeats += node.left.numberOfSeats;
+            node.totalMaxWeight += node.left.totalMaxWeight;
+        }
+        if (node.right != null) {
+            node.numberOfSeats += node.right.numberOfSeats;
+            node.totalMaxWeight += node.right.totalMaxWeight;
+        }
+    }
+
+    /**
+     * Splits a tree in the first count wagons and the rest, only the nodes on the path are copied.
+     */
+    private static Node[] split(Node node, int count) {
+        if (node == null) {
+            return new Node[]{null, null};
+        }
+        if (size(node.left) < count) {
+            Node[] parts = split(node.right, count - size(node.left) - 1);
+            return new Node[]{new Node(node, node.left, parts[0]), parts[1]};
+        } else {
+            Node[] parts = split(node.left, count);
+            return new Node[]{parts[0], new Node(node, parts[1], node.right)};
+        }
+    }
+
+    /**
+     * Merges two trees, only the nodes on the right spine of left and the left spine of right are copied.
+     */
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        } else if (right == null) {
+            return left;
+        } else if (left.priority > right.priority) {
+            return new Node(left, left.left, merge(left.right, right));
+        } else {
+            return new Node(right, merge(left, right.left), right.right);
+        }
+    }
+}
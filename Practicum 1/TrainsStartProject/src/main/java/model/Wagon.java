@@ -8,19 +8,21 @@ package model;
  */
 
 public abstract class Wagon {
-    private int wagonId;
+    private final int wagonId;
     private Wagon previousWagon;
     private Wagon nextWagon;
+    // the node of this wagon in the index of the last train it was hooked on
+    WagonIndex.Node node;
 
     public Wagon(int wagonId) {
         this.wagonId = wagonId;
     }
 
     /**
-     * This method calls
-     * itself repeatedly until the number of wagons attached
-     * is equal to 0. Then the method returns the last wagon
-     * it is called with.
+     * This method follows the next wagons
+     * until a wagon without a next wagon is found.
+     * A loop is used instead of recursion, so very long
+     * rows of wagons do not overflow the stack.
      * @return This method returns a Wagon object.
      *         The last wagon which is attached to the instatiated
      *         wagon object is returned
@@ -28,11 +30,11 @@ public abstract class Wagon {
     public Wagon getLastWagonAttached() {
         // find the last wagon of the row of wagons attached to this wagon
         // if no wagons are attached return this wagon
-        if (getNumberOfWagonsAttached() != 0) {
-            return nextWagon.getLastWagonAttached();
-        } else {
-            return this;
+        Wagon lastWagon = this;
+        while (lastWagon.hasNextWagon()) {
+            lastWagon = lastWagon.getNextWagon();
         }
+        return lastWagon;
     }
 
     /**
@@ -83,19 +85,20 @@ public abstract class Wagon {
 
     /**
      * Gets the number of wagons that is attached
-     * to this wagon. It uses recursion to get
-     * the number of attached wagons. The attached
+     * to this wagon. It loops over the next wagons
+     * instead of using recursion, so very long rows
+     * of wagons do not overflow the stack. The attached
      * wagons are the nextWagons from this wagon.
      * @return the number of wagons that are attached to this wagon
      */
     public int getNumberOfWagonsAttached() {
+        int numberOfWagons = 0;
         Wagon wagonIndex = this;
-
-        if (hasNextWagon()) {
+        while (wagonIndex.hasNextWagon()) {
             wagonIndex = wagonIndex.getNextWagon();
-            return 1 + wagonIndex.getNumberOfWagonsAttached();
-        } else
-            return 0;
+            numberOfWagons++;
+        }
+        return numberOfWagons;
     }
 
     /**
@@ -0,0 +1,164 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * This class is the blueprint of an assignment of a pool of wagons to a pool of locomotives,
+ * which uses as few locomotives as it can. Passenger wagons and freight wagons get separate trains
+ * and no locomotive pulls more than its maximum number of wagons.
+ * <p>
+ * Every wagon takes one place, so the locomotives are handed out from the largest to the smallest, each
+ * to the kind of wagons that still needs the most places. When the largest locomotive left has room for
+ * all remaining wagons of that kind, the smallest locomotive that still has room for them is used instead,
+ * so the large locomotives are kept for the other kind. The wagons are divided by kind and the trains
+ * are built in parallel.
+ *
+ * @author Abdul, Ferran
+ */
+public class WagonAssignment {
+    private final List<Train> trains;
+    private final List<Wagon> unassignedWagons;
+
+    private WagonAssignment(List<Train> trains, List<Wagon> unassignedWagons) {
+        this.trains = trains;
+        this.unassignedWagons = unassignedWagons;
+    }
+
+    /**
+     * A locomotive with the wagons it is going to pull.
+     */
+    private static class Part {
+        private final Locomotive engine;
+        private final List<? extends Wagon> wagons;
+        private final int from;
+        private final int to;
+
+        private Part(Locomotive engine, List<? extends Wagon> wagons, int from, int to) {
+            this.engine = engine;
+            this.wagons = wagons;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * Assigns the wagons to the locomotives and builds a train for every locomotive that is used.
+     *
+     * @param wagons      the wagons to assign, they should not be hooked on other wagons
+     * @param locomotives the locomotives that can be used
+     * @param origin      where the trains depart
+     * @param destination where the trains go to
+     * @return the trains, and the wagons for which there was no room
+     * @throws IllegalArgumentException if a wagon is hooked on another wagon
+     */
+    public static WagonAssignment assign(List<? extends Wagon> wagons, List<Locomotive> locomotives,
+                                         String origin, String destination) {
+        for (Wagon wagon : wagons) {
+            if (wagon.hasPreviousWagon() || wagon.hasNextWagon()) {
+                throw new IllegalArgumentException(String.format("%s is hooked on another wagon", wagon));
+            }
+        }
+        Map<Boolean, List<Wagon>> kinds = wagons.parallelStream()
+                .collect(Collectors.partitioningBy(wagon -> wagon instanceof PassengerWagon));
+        List<Wagon> passengerWagons = kinds.get(true);
+        List<Wagon> freightWagons = kinds.get(false);
+
+        Locomotive[] engines = locomotives.stream()
+                .filter(engine -> engine.getMaxWagons() > 0)
+                .sorted(Comparator.comparingInt(Locomotive::getMaxWagons))
+                .toArray(Locomotive[]::new);
+        boolean[] used = new boolean[engines.length];
+        int largest = engines.length - 1;
+
+        List<Part> parts = new ArrayList<>();
+        int passengersLeft = passengerWagons.size();
+        int freightLeft = freightWagons.size();
+        while (passengersLeft + freightLeft > 0) {
+            while (largest >= 0 && used[largest]) {
+                largest--;
+            }
+            if (largest < 0) {
+                break;
+            }
+            boolean passengers = passengersLeft >= freightLeft;
+            int needed = passengers ? passengersLeft : freightLeft;
+            int engine = engines[largest].getMaxWagons() >= needed ? smallestWithRoom(engines, used, needed) : largest;
+            used[engine] = true;
+
+            int places = Math.min(needed, engines[engine].getMaxWagons());
+            List<Wagon> kind = passengers ? passengerWagons : freightWagons;
+            int from = kind.size() - needed;
+            parts.add(new Part(engines[engine], kind, from, from + places));
+            if (passengers) {
+                passengersLeft -= places;
+            } else {
+                freightLeft -= places;
+            }
+        }
+
+        List<Train> trains = parts.parallelStream()
+                .map(part -> makeTrain(part, origin, destination))
+                .collect(Collectors.toList());
+        List<Wagon> unassignedWagons = new ArrayList<>(passengersLeft + freightLeft);
+        unassignedWagons.addAll(passengerWagons.subList(passengerWagons.size() - passengersLeft, passengerWagons.size()));
+        unassignedWagons.addAll(freightWagons.subList(freightWagons.size() - freightLeft, freightWagons.size()));
+        return new WagonAssignment(Collections.unmodifiableList(trains), Collections.unmodifiableList(unassignedWagons));
+    }
+
+    private static int smallestWithRoom(Locomotive[] engines, boolean[] used, int needed) {
+        int low = 0;
+        int high = engines.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (engines[middle].getMaxWagons() >= needed) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        while (used[low]) {
+            low++;
+        }
+        return low;
+    }
+
+    private static Train makeTrain(Part part, String origin, String destination) {
+        Train train = new Train(part.engine, origin, destination);
+        Wagon first = part.wagons.get(part.from);
+        Wagon previous = first;
+        for (int w = part.from + 1; w < part.to; w++) {
+            Wagon wagon = part.wagons.get(w);
+            previous.setNextWagon(wagon);
+            previous = wagon;
+        }
+        Shunter.hookWagonOnTrainRear(train, first);
+        return train;
+    }
+
+    /**
+     * @return the trains that were built, one for every locomotive that is used
+     */
+    public List<Train> getTrains() {
+        return trains;
+    }
+
+    /**
+     * @return the wagons for which there was no room on the locomotives
+     */
+    public List<Wagon> getUnassignedWagons() {
+        return unassignedWagons;
+    }
+
+    /**
+     * @return a String which prints the number of trains and unassigned wagons
+     */
+    @Override
+    public String toString() {
+        return String.format("%d trains, %d wagons without a locomotive", trains.size(), unassignedWagons.size());
+    }
+}
@@ -0,0 +1,541 @@
+package model;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class keeps an index of the wagons of one train.
+ * The wagons are stored in a treap that uses the position of a wagon as its (implicit) key,
+ * so the position of a wagon and the wagon on a position can be found in O(log n).
+ * A map from wagonId to tree node makes it possible to start at a wagon when only its id is known.
+ * Nothing stops two wagons from having the same wagonId, so the map holds the first node with an id
+ * and every node links to the next node with the same id.
+ * The root of a tree knows the index it belongs to, so the train of a node is found by walking up to the root.
+ * A train that is not in a yard has a map of its own, the trains in a yard share the map of the yard.
+ * A row of wagons can then be split off and appended to another train in the same yard in O(log n),
+ * without visiting the wagons of the row, only a row that leaves its map has to be registered again.
+ * Every node also keeps the number of seats and the total maximum weight of the wagons in its subtree,
+ * so the totals of the whole train are kept up to date by the same splits and merges.
+ *
+ * @author Abdul, Ferran
+ */
+class WagonIndex {
+    private final Train train;
+    private Node root;
+    // the map of a train that is not in a yard, a train never leaves its yard so the map is dropped when it joins one
+    private IntMap<Node> nodes = new IntMap<>();
+
+    WagonIndex(Train train) {
+        this.train = train;
+    }
+
+    /**
+     * A node of the treap, the size, number of seats and total maximum weight are those of the subtree of the node.
+     */
+    static class Node {
+        private final Wagon wagon;
+        private final int priority;
+        private final int seats;
+        private final int maxWeight;
+        private Node left;
+        private Node right;
+        private Node parent;
+        private WagonIndex owner;
+        // the next node in the map with the same wagonId
+        private Node sameId;
+        private int size = 1;
+        private long numberOfSeats;
+        private long totalMaxWeight;
+
+        private Node(Wagon wagon) {
+            this.wagon = wagon;
+            wagon.node = this;
+            this.priority = ThreadLocalRandom.current().nextInt();
+            this.seats = wagon instanceof PassengerWagon ? ((PassengerWagon) wagon).getNumberOfSeats() : 0;
+            this.maxWeight = wagon instanceof FreightWagon ? ((FreightWagon) wagon).getMaxWeight() : 0;
+            this.numberOfSeats = seats;
+            this.totalMaxWeight = maxWeight;
+        }
+    }
+
+    /**
+     * @return the number of wagons in this index
+     */
+    int size() {
+        return size(root);
+    }
+
+    /**
+     * @return the number of seats of all passenger wagons in this index
+     */
+    long getNumberOfSeats() {
+        Node node = root;
+        return node == null ? 0 : node.numberOfSeats;
+    }
+
+    /**
+     * @return the total maximum weight of all freight wagons in this index
+     */
+    long getTotalMaxWeight() {
+        Node node = root;
+        return node == null ? 0 : node.totalMaxWeight;
+    }
+
+    /**
+     * Removes all wagons from this index.
+     */
+    void clear() {
+        if (root != null) {
+            // the wagons that were in this index are on no train anymore
+            root.owner = null;
+        }
+        if (train.getYard() == null) {
+            nodes.clear();
+        } else {
+            unregister(root);
+        }
+        root = null;
+    }
+
+    /**
+     * Moves the nodes of this index from its own map to the map of a yard, the train is about to join the yard.
+     *
+     * @param yard the yard the train joins
+     */
+    void joinYard(Yard yard) {
+        yard.register(root);
+        nodes = null;
+    }
+
+    /**
+     * Adds a row of wagons after the last wagon of this index.
+     *
+     * @param first  the first wagon of the row
+     * @param wagons the number of wagons in the row
+     */
+    void append(Wagon first, int wagons) {
+        Node tree = build(first, wagons);
+        register(tree);
+        setRoot(merge(root, tree));
+    }
+
+    /**
+     * Adds a row of wagons before the first wagon of this index.
+     *
+     * @param first  the first wagon of the row
+     * @param wagons the number of wagons in the row
+     */
+    void prepend(Wagon first, int wagons) {
+        Node tree = build(first, wagons);
+        register(tree);
+        setRoot(merge(tree, root));
+    }
+
+    /**
+     * Adds one wagon on the given position, the wagon that was on that position moves one position back.
+     *
+     * @param position the new position of the wagon, starting at 1
+     * @param wagon    the wagon to add
+     */
+    void insert(int position, Wagon wagon) {
+        Node node = build(wagon, 1);
+        register(node);
+        Node[] parts = split(root, position - 1);
+        setRoot(merge(merge(parts[0], node), parts[1]));
+    }
+
+    /**
+     * Adds a tree that was split off from another index after the last wagon of this index.
+     * The nodes of the tree only have to be registered again when the other index uses another map.
+     *
+     * @param tree   the tree returned by {@link #splitFrom(int)}
+     * @param source the index the tree was split off from
+     */
+    void append(Node tree, WagonIndex source) {
+        if (!source.sharesMapWith(this)) {
+            source.unregister(tree);
+            register(tree);
+        }
+        setRoot(merge(root, tree));
+    }
+
+    /**
+     * Splits the wagon on the given position and all wagons after it off this index.
+     * The nodes stay in the map, until the tree is appended to another index or {@link #discard(Node)} is called.
+     *
+     * @param position the position of the first wagon to split off, starting at 1
+     * @return the tree with the wagons that were split off, it belongs to no index
+     */
+    Node splitFrom(int position) {
+        Node[] parts = split(root, position - 1);
+        setRoot(parts[0]);
+        if (parts[1] != null) {
+            parts[1].owner = null;
+        }
+        return parts[1];
+    }
+
+    /**
+     * Removes the nodes of a tree that was split off this index from the map, the wagons have left the train.
+     *
+     * @param tree the tree returned by {@link #splitFrom(int)}
+     */
+    void discard(Node tree) {
+        unregister(tree);
+    }
+
+    /**
+     * Reverses the order of the wagons in this index in O(n), the nodes stay in the map.
+     */
+    void reverse() {
+        Node[] inOrder = new Node[size()];
+        Deque<Node> path = new ArrayDeque<>();
+        Node node = root;
+        int index = inOrder.length;
+        while (node != null || !path.isEmpty()) {
+            while (node != null) {
+                path.push(node);
+                node = node.left;
+            }
+            node = path.pop();
+            inOrder[--index] = node;
+            node = node.right;
+        }
+        setRoot(build(inOrder));
+    }
+
+    /**
+     * Removes one wagon from this index.
+     *
+     * @param wagon the wagon to remove
+     */
+    void remove(Wagon wagon) {
+        int position = positionOf(wagon);
+        if (position == -1) {
+            return;
+        }
+        Node[] parts = split(root, position - 1);
+        Node[] rest = split(parts[1], 1);
+        rest[0].owner = null;
+        unregister(rest[0]);
+        setRoot(merge(parts[0], rest[1]));
+    }
+
+    /**
+     * @param wagonId the id of the wagon to find
+     * @return the position of the first wagon with the given id starting at 1, or -1 if there is no such wagon
+     */
+    int positionOf(int wagonId) {
+        Yard yard = train.getYard();
+        return yard == null ? positionOf(nodes, wagonId) : yard.positionOf(wagonId, this);
+    }
+
+    /**
+     * Used by the yard with its map locked, the nodes with the same id can be on several trains.
+     */
+    int positionOf(IntMap<Node> nodes, int wagonId) {
+        int position = -1;
+        for (Node node = nodes.get(wagonId); node != null; node = node.sameId) {
+            int rank = trainOf(node) == train ? rank(node) : -1;
+            if (rank != -1 && (position == -1 || rank < position)) {
+                position = rank;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * @param wagon the wagon to find
+     * @return the position of exactly this wagon starting at 1, or -1 if it is not in this index
+     */
+    int positionOf(Wagon wagon) {
+        Yard yard = train.getYard();
+        Node node = yard == null ? nodeOf(nodes, wagon) : yard.node(wagon);
+        return node == null || trainOf(node) != train ? -1 : rank(node);
+    }
+
+    /**
+     * @return the node of exactly this wagon in the map, or null if it is not in the map
+     */
+    static Node nodeOf(IntMap<Node> nodes, Wagon wagon) {
+        for (Node node = nodes.get(wagon.getWagonId()); node != null; node = node.sameId) {
+            if (node.wagon == wagon) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param wagon the wagon to find
+     * @return the train the wagon is on, or null if the wagon is not on a train
+     */
+    static Train trainOf(Wagon wagon) {
+        Node node = wagon.node;
+        return node == null ? null : trainOf(node);
+    }
+
+    /**
+     * Finds the train of a node by walking up to the root. While other threads are shunting the train
+     * the answer can be wrong, it should be checked again with the train locked.
+     *
+     * @param node the node of a wagon
+     * @return the train the wagon is on, or null if the wagon is between two trains
+     */
+    static Train trainOf(Node node) {
+        // the number of steps is limited, a tree that is changed while walking it might have a cycle for a moment
+        for (int steps = 0; node.parent != null; steps++) {
+            if (steps == 1 << 16) {
+                return null;
+            }
+            node = node.parent;
+        }
+        WagonIndex owner = node.owner;
+        return owner == null ? null : owner.train;
+    }
+
+    private boolean sharesMapWith(WagonIndex other) {
+        Yard yard = train.getYard();
+        return yard != null && yard == other.train.getYard();
+    }
+
+    private void setRoot(Node node) {
+        root = node;
+        if (node != null) {
+            node.owner = this;
+        }
+    }
+
+    /**
+     * @param position the position of the wagon, starting at 1
+     * @return the wagon on the given position
+     */
+    Wagon wagonAt(int position) {
+        Node node = root;
+        int index = position - 1;
+        while (index != size(node.left)) {
+            if (index < size(node.left)) {
+                node = node.left;
+            } else {
+                index -= size(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return node.wagon;
+    }
+
+    /**
+     * @return the position of the node, or -1 if the node is in the map but belongs to another index
+     */
+    private int rank(Node node) {
+        int rank = size(node.left) + 1;
+        while (node.parent != null) {
+            if (node == node.parent.right) {
+                rank += size(node.parent.left) + 1;
+            }
+            node = node.parent;
+        }
+        return node == root ? rank : -1;
+    }
+
+    /**
+     * Builds a treap of a row of wagons in linear time.
+     */
+    private static Node build(Wagon first, int wagons) {
+        // the nodes are hooked on the tree as the row is walked, so no array of all nodes is needed
+        Deque<Node> rightSpine = new ArrayDeque<>();
+        Wagon wagon = first;
+        for (int i = 0; i < wagons; i++) {
+            hookOnRightSpine(rightSpine, new Node(wagon));
+            wagon = wagon.getNextWagon();
+        }
+        return finish(rightSpine);
+    }
+
+    /**
+     * Builds a treap of nodes in the given order in linear time, every node is hooked on the right spine
+     * of the tree built so far. The priorities of the nodes are kept, so existing nodes can be reordered.
+     */
+    private static Node build(Node[] inOrder) {
+        Deque<Node> rightSpine = new ArrayDeque<>();
+        for (Node node : inOrder) {
+            hookOnRightSpine(rightSpine, node);
+        }
+        return finish(rightSpine);
+    }
+
+    private static void hookOnRightSpine(Deque<Node> rightSpine, Node node) {
+        node.left = null;
+        node.right = null;
+        node.parent = null;
+        Node last = null;
+        while (!rightSpine.isEmpty() && rightSpine.peek().priority < node.priority) {
+            last = rightSpine.pop();
+        }
+        node.left = last;
+        if (last != null) {
+            last.parent = node;
+        }
+        if (!rightSpine.isEmpty()) {
+            rightSpine.peek().right = node;
+            node.parent = rightSpine.peek();
+        }
+        rightSpine.push(node);
+    }
+
+    private static Node finish(Deque<Node> rightSpine) {
+        Node tree = rightSpine.peekLast();
+        updateSizes(tree);
+        return tree;
+    }
+
+    private static void updateSizes(Node node) {
+        if (node != null) {
+            updateSizes(node.left);
+            updateSizes(node.right);
+            update(node);
+        }
+    }
+
+    private void register(Node tree) {
+        Yard yard = train.getYard();
+        if (yard == null) {
+            register(nodes, tree);
+        } else {
+            yard.register(tree);
+        }
+    }
+
+    private void unregister(Node tree) {
+        Yard yard = train.getYard();
+        if (yard == null) {
+            unregister(nodes, tree);
+        } else {
+            yard.unregister(tree);
+        }
+    }
+
+    /**
+     * Adds the nodes of a tree to a map, a node with the id of a node already in the map is linked behind it.
+     *
+     * @return the number of nodes that have been added
+     */
+    static int register(IntMap<Node> nodes, Node node) {
+        if (node == null) {
+            return 0;
+        }
+        int wagonId = node.wagon.getWagonId();
+        Node first = nodes.get(wagonId);
+        if (first == null) {
+            node.sameId = null;
+            nodes.put(wagonId, node);
+        } else {
+            node.sameId = first.sameId;
+            first.sameId = node;
+        }
+        return 1 + register(nodes, node.left) + register(nodes, node.right);
+    }
+
+    /**
+     * Removes the nodes of a tree from a map, the other nodes with the same ids stay in the map.
+     *
+     * @return the number of nodes that have been removed
+     */
+    static int unregister(IntMap<Node> nodes, Node node) {
+        if (node == null) {
+            return 0;
+        }
+        int wagonId = node.wagon.getWagonId();
+        Node first = nodes.get(wagonId);
+        int removed = 0;
+        if (first == node) {
+            if (node.sameId == null) {
+                nodes.remove(wagonId, node);
+            } else {
+                nodes.put(wagonId, node.sameId);
+            }
+            removed = 1;
+        } else if (first != null) {
+            Node previous = first;
+            while (previous.sameId != null && previous.sameId != node) {
+                previous = previous.sameId;
+            }
+            if (previous.sameId == node) {
+                previous.sameId = node.sameId;
+                removed = 1;
+            }
+        }
+        node.sameId = null;
+        return removed + unregister(nodes, node.left) + unregister(nodes, node.right);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static void update(Node node) {
+        node.size = size(node.left) + size(node.right) + 1;
+        node.numberOfSeats = node.seats;
+        node.totalMaxWeight = node.maxWeight;
+        if (node.left != null) {
+            node.numberOfSeats += node.left.numberOfSeats;
+            node.totalMaxWeight += node.left.totalMaxWeight;
+        }
+        if (node.right != null) {
+            node.numberOfSeats += node.right.numberOfSeats;
+            node.totalMaxWeight += node.right.totalMaxWeight;
+        }
+        if (node.left != null) {
+            node.left.parent = node;
+        }
+        if (node.right != null) {
+            node.right.parent = node;
+        }
+    }
+
+    /**
+     * Splits a tree in the first count wagons and the rest.
+     */
+    private static Node[] split(Node node, int count) {
+        if (node == null) {
+            return new Node[]{null, null};
+        }
+        Node[] parts;
+        if (size(node.left) < count) {
+            parts = split(node.right, count - size(node.left) - 1);
+            node.right = parts[0];
+            update(node);
+            parts[0] = node;
+        } else {
+            parts = split(node.left, count);
+            node.left = parts[1];
+            update(node);
+            parts[1] = node;
+        }
+        for (Node part : parts) {
+            if (part != null) {
+                part.parent = null;
+            }
+        }
+        return parts;
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        } else if (right == null) {
+            return left;
+        } else if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            left.parent = null;
+            return left;
+        } else {
+            right.left = merge(left, right.left);
+            update(right);
+            right.parent = null;
+            return right;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class is the blueprint of a yard, a set of trains of which the wagons can be looked up by wagonId.
+ * The yard keeps a map from wagonId to the node of the wagon in the index of its train, which is shared
+ * by all trains in the yard. The Shunter keeps this map up to date whenever it hooks or detaches wagons,
+ * a row of wagons that is moved from one train in the yard to another stays in the map.
+ * The train of a wagon is found by walking up from its node to the root of the index.
+ * Two wagons in a yard can have the same wagonId, looking up that id gives the one that was added to the yard first.
+ * The map of a yard is only used while the yard is locked, because the trains in a yard can be shunted by different threads
+ * at the same time (see ConcurrentShunter).
+ *
+ * @author Abdul, Ferran
+ */
+public class Yard {
+    // a lookup gives up when the wagon keeps moving between trains, rather than waiting forever
+    private static final int MAX_ATTEMPTS = 1_000;
+
+    private final List<Train> trains = new ArrayList<>();
+    private final IntMap<WagonIndex.Node> nodes = new IntMap<>();
+    private int numberOfWagons;
+
+    /**
+     * Adds a train and all its wagons to this yard.
+     *
+     * @param train the train to add, it cannot be in another yard
+     * @throws IllegalArgumentException if the train is already in a yard
+     */
+    public synchronized void addTrain(Train train) {
+        if (train.getYard() != null) {
+            throw new IllegalArgumentException(String.format("Train %s is already in a yard", train.getEngine()));
+        }
+        trains.add(train);
+        train.setYard(this);
+    }
+
+    /**
+     * @return the trains in this yard
+     */
+    public synchronized List<Train> getTrains() {
+        return Collections.unmodifiableList(trains);
+    }
+
+    /**
+     * @return the number of wagons on all trains in this yard
+     */
+    public synchronized int getNumberOfWagons() {
+        return numberOfWagons;
+    }
+
+    /**
+     * @param wagonId the id of the wagon to find
+     * @return the train the wagon is on, or null if the wagon is not on a train in this yard
+     */
+    public Train getTrainOfWagon(int wagonId) {
+        // the index is walked without a lock, the train that is found is checked again with the train locked
+        for (int attempts = 0; attempts < MAX_ATTEMPTS; attempts++) {
+            WagonIndex.Node node = node(wagonId);
+            if (node == null) {
+                return null;
+            }
+            Train train = WagonIndex.trainOf(node);
+            if (train == null) {
+                // the wagon is being moved from one train to another
+                Thread.yield();
+                continue;
+            }
+            // the yard is not locked while the train is, a shunting thread locks them the other way around
+            long stamp = train.getLock().readLock();
+            try {
+                if (node(wagonId) == node && WagonIndex.trainOf(node) == train) {
+                    return train;
+                }
+            } finally {
+                train.getLock().unlockRead(stamp);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param wagonId the id of the wagon to find
+     * @return the position of the wagon on its train, or -1 if the wagon is not on a train in this yard
+     */
+    public int getPositionOfWagon(int wagonId) {
+        for (int attempts = 0; attempts < MAX_ATTEMPTS; attempts++) {
+            Train train = getTrainOfWagon(wagonId);
+            if (train == null) {
+                return -1;
+            }
+            long stamp = train.getLock().readLock();
+            try {
+                int position = train.getPositionOfWagon(wagonId);
+                // otherwise the wagon has moved to another train in the meantime
+                if (position != -1) {
+                    return position;
+                }
+            } finally {
+                train.getLock().unlockRead(stamp);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Looks up the trains of many wagons at once.
+     *
+     * @param wagonIds the ids of the wagons to find
+     * @return for every wagonId the train the wagon is on, or null if the wagon is not in this yard
+     */
+    public Train[] getTrainsOfWagons(int[] wagonIds) {
+        Train[] result = new Train[wagonIds.length];
+        for (int i = 0; i < wagonIds.length; i++) {
+            result[i] = getTrainOfWagon(wagonIds[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Looks up the positions of many wagons at once.
+     *
+     * @param wagonIds the ids of the wagons to find
+     * @return for every wagonId the position of the wagon on its train, or -1 if the wagon is not in this yard
+     */
+    public int[] getPositionsOfWagons(int[] wagonIds) {
+        int[] result = new int[wagonIds.length];
+        for (int i = 0; i < wagonIds.length; i++) {
+            result[i] = getPositionOfWagon(wagonIds[i]);
+        }
+        return result;
+    }
+
+    /* the methods below are used by the indexes of the trains to keep the map of the wagons up to date */
+
+    synchronized WagonIndex.Node node(int wagonId) {
+        return nodes.get(wagonId);
+    }
+
+    synchronized WagonIndex.Node node(Wagon wagon) {
+        return WagonIndex.nodeOf(nodes, wagon);
+    }
+
+    synchronized int positionOf(int wagonId, WagonIndex index) {
+        return index.positionOf(nodes, wagonId);
+    }
+
+    synchronized void register(WagonIndex.Node tree) {
+        numberOfWagons += WagonIndex.register(nodes, tree);
+    }
+
+    synchronized void unregister(WagonIndex.Node tree) {
+        numberOfWagons -= WagonIndex.unregister(nodes, tree);
+    }
+}
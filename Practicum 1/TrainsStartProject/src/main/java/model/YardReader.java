@@ -0,0 +1,200 @@
+package model;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class is the blueprint of a reader of trains from a file written by a {@link YardWriter},
+ * the format is described there. The file is read from a FileChannel into a direct buffer, a train at a time,
+ * and the numbers are decoded straight from the buffer, so besides the wagons themselves no objects
+ * are made for a wagon besides its node in the index of the train. The number of wagons is written before the
+ * wagons, so the index is built in one walk over the wagons. A train is only added to a yard when all its wagons
+ * have been read, and before its index is built, so its wagons are registered in the map of the yard once.
+ *
+ * @author Abdul, Ferran
+ */
+public class YardReader implements Closeable {
+    private final Path file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(YardWriter.BUFFER_SIZE);
+    private boolean endOfFile;
+    private boolean endOfTrains;
+
+    /**
+     * Opens a file and checks the start of the format.
+     *
+     * @param file the file to read the trains from
+     * @throws IOException if the file cannot be read or is not written by a YardWriter
+     */
+    public YardReader(Path file) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        buffer.flip();
+        try {
+            fill(5);
+            if (buffer.remaining() < 5 || buffer.getInt() != YardWriter.MAGIC) {
+                throw new IOException(String.format("%s is not a file of trains", file));
+            }
+            byte version = buffer.get();
+            if (version != YardWriter.VERSION) {
+                throw new IOException(String.format("%s has version %d of the format, only version %d can be read",
+                        file, version, YardWriter.VERSION));
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads all trains of a file into a new yard.
+     *
+     * @param file the file to read the trains from
+     * @return the yard with the trains, in the order they were written
+     * @throws IOException if the file cannot be read or is not written by a YardWriter
+     */
+    public static Yard read(Path file) throws IOException {
+        Yard yard = new Yard();
+        try (YardReader reader = new YardReader(file)) {
+            while (reader.readTrain(yard) != null) {
+                // the train has been added to the yard
+            }
+        }
+        return yard;
+    }
+
+    /**
+     * Reads the next train with its locomotive and wagons.
+     *
+     * @param yard the yard to add the train to, or null to keep the train out of a yard
+     * @return the train, or null if all trains have been read
+     * @throws IOException if the file cannot be read or ends in the middle of a train
+     */
+    public Train readTrain(Yard yard) throws IOException {
+        if (endOfTrains) {
+            return null;
+        }
+        try {
+            fill(1 + 3 * YardWriter.MAX_VARINT_SIZE);
+            byte tag = buffer.get();
+            if (tag == YardWriter.END) {
+                endOfTrains = true;
+                return null;
+            } else if (tag != YardWriter.TRAIN) {
+                throw new IOException(String.format("%s has an unknown record %d", file, tag));
+            }
+            Locomotive engine = new Locomotive(unzigzag(getVarint()), unzigzag(getVarint()));
+            String origin = getString();
+            String destination = getString();
+            Train train = new Train(engine, origin, destination);
+
+            fill(YardWriter.MAX_VARINT_SIZE);
+            int numberOfWagons = getVarint();
+            Wagon first = null;
+            Wagon last = null;
+            int wagonId = 0;
+            for (int w = 0; w < numberOfWagons; w++) {
+                fill(2 * YardWriter.MAX_VARINT_SIZE + 1);
+                wagonId += unzigzag(getVarint());
+                byte kind = buffer.get();
+                Wagon wagon = newWagon(wagonId, kind, unzigzag(getVarint()));
+                if (last == null) {
+                    first = wagon;
+                } else {
+                    last.setNextWagon(wagon);
+                }
+                last = wagon;
+            }
+            // other threads can find the train as soon as it is in the yard, so it is locked until it has its wagons
+            long stamp = train.getLock().writeLock();
+            try {
+                if (yard != null) {
+                    yard.addTrain(train);
+                }
+                if (numberOfWagons > 0) {
+                    train.hookOnRear(first, last, numberOfWagons);
+                }
+            } finally {
+                train.getLock().unlockWrite(stamp);
+            }
+            return train;
+        } catch (BufferUnderflowException e) {
+            throw new EOFException(String.format("%s ends in the middle of a train", file));
+        }
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private String getString() throws IOException {
+        fill(YardWriter.MAX_VARINT_SIZE);
+        int length = getVarint() - 1;
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            fill(1);
+            int chunk = Math.min(length - read, buffer.remaining());
+            buffer.get(bytes, read, chunk);
+            read += chunk;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int getVarint() {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Makes sure the buffer holds at least the given number of bytes, unless the file ends before.
+     */
+    private void fill(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes || endOfFile) {
+            return;
+        }
+        buffer.compact();
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) == -1) {
+                endOfFile = true;
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static Wagon newWagon(int wagonId, byte kind, int capacity) throws IOException {
+        if (kind == YardWriter.PASSENGER) {
+            return new PassengerWagon(wagonId, capacity);
+        } else if (kind == YardWriter.FREIGHT) {
+            return new FreightWagon(wagonId, capacity);
+        }
+        throw new IOException(String.format("Wagon %d has an unknown kind %d", wagonId, kind));
+    }
+}
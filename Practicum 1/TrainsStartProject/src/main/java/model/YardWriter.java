@@ -0,0 +1,184 @@
+package model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class is the blueprint of a writer of trains to a compact binary file, which can be read back
+ * with a {@link YardReader}. The trains are written one at a time through a direct buffer, which is written
+ * to a FileChannel whenever it is full, so a yard of any size can be written with a fixed amount of memory.
+ * <p>
+ * The file starts with a magic number and the version of the format, followed by the trains and a zero byte.
+ * A train starts with a one byte, then the locNumber and maxWagons of its locomotive, its origin and destination,
+ * the number of wagons and the wagons. A wagon is the difference between its wagonId and the wagonId
+ * of the wagon in front of it, a kind byte (1 passenger, 2 freight) and its number of seats or maximum weight.
+ * All numbers are varints of 1 to 5 bytes, 7 bits per byte with the high bit set when another byte follows,
+ * numbers that can be negative are zigzag encoded first. A wagon with a wagonId close to the wagonId
+ * of the wagon in front of it and a capacity below 8192 takes 4 bytes.
+ * A String is its length plus one followed by its UTF-8 bytes, a null String is a zero length.
+ * <p>
+ * The trains should not be shunted while they are written.
+ *
+ * @author Abdul, Ferran
+ */
+public class YardWriter implements Closeable {
+    static final int MAGIC = 0x59415244;
+    static final byte VERSION = 1;
+    static final byte END = 0;
+    static final byte TRAIN = 1;
+    static final byte PASSENGER = 1;
+    static final byte FREIGHT = 2;
+    static final int BUFFER_SIZE = 1 << 20;
+    // a varint of an int takes at most 5 bytes
+    static final int MAX_VARINT_SIZE = 5;
+    private static final int MAX_WAGON_SIZE = 2 * MAX_VARINT_SIZE + 1;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private long wagons;
+
+    /**
+     * Creates a file, or empties an existing file, and writes the start of the format to it.
+     *
+     * @param file the file to write the trains to
+     * @throws IOException if the file cannot be written
+     */
+    public YardWriter(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+    }
+
+    /**
+     * Writes all trains of a yard to a file.
+     *
+     * @param yard the yard to write
+     * @param file the file to write the trains to
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Yard yard, Path file) throws IOException {
+        try (YardWriter writer = new YardWriter(file)) {
+            for (Train train : yard.getTrains()) {
+                writer.writeTrain(train);
+            }
+        }
+    }
+
+    /**
+     * Writes a train with its locomotive and all its wagons.
+     *
+     * @param train the train to write
+     * @throws IOException if the file cannot be written
+     */
+    public void writeTrain(Train train) throws IOException {
+        ensure(1 + 3 * MAX_VARINT_SIZE);
+        buffer.put(TRAIN);
+        putVarint(zigzag(train.getEngine().getLocNumber()));
+        putVarint(zigzag(train.getEngine().getMaxWagons()));
+        putString(train.getOrigin());
+        putString(train.getDestination());
+        int numberOfWagons = train.getNumberOfWagons();
+        ensure(MAX_VARINT_SIZE);
+        putVarint(numberOfWagons);
+        int previousId = 0;
+        int written = 0;
+        for (Wagon wagon = train.getFirstWagon(); written < numberOfWagons; wagon = wagon.getNextWagon()) {
+            ensure(MAX_WAGON_SIZE);
+            // the difference can overflow, the reader adds it up with the same overflow
+            putVarint(zigzag(wagon.getWagonId() - previousId));
+            buffer.put(kindOf(wagon));
+            putVarint(zigzag(capacityOf(wagon)));
+            previousId = wagon.getWagonId();
+            written++;
+        }
+        wagons += written;
+    }
+
+    /**
+     * @return the number of wagons written so far
+     */
+    public long getNumberOfWagons() {
+        return wagons;
+    }
+
+    /**
+     * Writes the end of the format and closes the file.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            ensure(1);
+            buffer.put(END);
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void putString(String string) throws IOException {
+        if (string == null) {
+            ensure(1);
+            buffer.put((byte) 0);
+            return;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        ensure(MAX_VARINT_SIZE);
+        putVarint(bytes.length + 1);
+        if (bytes.length <= buffer.remaining()) {
+            buffer.put(bytes);
+        } else {
+            flush();
+            ByteBuffer large = ByteBuffer.wrap(bytes);
+            while (large.hasRemaining()) {
+                channel.write(large);
+            }
+        }
+    }
+
+    private void putVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Maps small negative numbers to small positive numbers: 0, -1, 1, -2, 2 become 0, 1, 2, 3, 4.
+     */
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static byte kindOf(Wagon wagon) {
+        return wagon instanceof PassengerWagon ? PASSENGER : FREIGHT;
+    }
+
+    static int capacityOf(Wagon wagon) {
+        return wagon instanceof PassengerWagon
+                ? ((PassengerWagon) wagon).getNumberOfSeats()
+                : ((FreightWagon) wagon).getMaxWeight();
+    }
+}
@@ -3,9 +3,21 @@ import model.*;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -108,6 +120,27 @@ public class TrainsTest {
         assertEquals(-1, firstPassengerTrain.getPositionOfWagon(43));
     }
 
+    @Test
+    public void checkHookRowWagonsNeverOverfillsTrain() {
+        makeTrains();
+        Shunter.detachOneWagon(firstPassengerTrain, pwList.get(5));
+        Wagon row = new PassengerWagon(50, 100);
+        for (int id = 51; id < 54; id++) {
+            row.getLastWagonAttached().setNextWagon(new PassengerWagon(id, 100));
+        }
+        // 5 wagons and a row of 4 is more than the 7 wagons thomas can pull, at the rear and at the front
+        assertFalse(Shunter.hookWagonOnTrainRear(firstPassengerTrain, row));
+        assertFalse(Shunter.hookWagonOnTrainFront(firstPassengerTrain, row));
+        assertFalse(Shunter.hookWagonOnTrainRear(new Train(new Locomotive(1, 3), "Utrecht", "Breda"), row));
+        assertEquals(5, firstPassengerTrain.getNumberOfWagons());
+        assertTrue(Shunter.hookWagonOnTrainRear(new Train(new Locomotive(2, 4), "Utrecht", "Breda"), row));
+        // only the moveAllFromTrain of the Shunter keeps its old check, see checkMoveAllFromTrain
+        Train small = new Train(new Locomotive(3, 4), "Utrecht", "London");
+        assertFalse(ConcurrentShunter.moveAllFromTrain(firstPassengerTrain, small, pwList.get(0)));
+        assertTrue(ConcurrentShunter.moveAllFromTrain(firstPassengerTrain, small, pwList.get(1)));
+        assertEquals(4, small.getNumberOfWagons());
+    }
+
     @Test
     public void checkMoveOneWagon() {
         makeTrains();
@@ -241,4 +274,718 @@ public class TrainsTest {
         makeTrains();
         assertEquals(5, firstPassengerTrain.getFirstWagon().getNumberOfWagonsAttached());
     }
+
+    @Test
+    public void checkLastWagonIsKeptUpToDate() {
+        makeTrains();
+        assertEquals(pwList.get(5), firstPassengerTrain.getLastWagon());
+        Shunter.detachOneWagon(firstPassengerTrain, pwList.get(5));
+        assertEquals(pwList.get(4), firstPassengerTrain.getLastWagon());
+        assertEquals(5, firstPassengerTrain.getNumberOfWagons());
+        Shunter.moveAllFromTrain(firstPassengerTrain, secondPassengerTrain, pwList.get(2));
+        assertEquals(pwList.get(1), firstPassengerTrain.getLastWagon());
+        assertEquals(pwList.get(4), secondPassengerTrain.getLastWagon());
+        assertEquals(3, secondPassengerTrain.getNumberOfWagons());
+    }
+
+    @Test
+    public void checkHookWagonOnWagonLeavesTrainsAlone() {
+        makeTrains();
+        // the row 3-24-... of the train would be cut off behind 3
+        assertFalse(Shunter.hookWagonOnWagon(pwList.get(0), new PassengerWagon(9, 1)));
+        assertFalse(Shunter.hookWagonOnWagon(pwList.get(5), new PassengerWagon(60, 100)));
+        assertFalse(Shunter.hookWagonOnWagon(new PassengerWagon(61, 100), pwList.get(0)));
+        assertEquals(pwList.get(1), pwList.get(0).getNextWagon());
+        Wagon rear = new PassengerWagon(10, 1);
+        assertTrue(Shunter.hookWagonOnTrainRear(firstPassengerTrain, rear));
+        assertEquals(7, firstPassengerTrain.getNumberOfWagons());
+        assertEquals(7, firstPassengerTrain.getPositionOfWagon(10));
+        assertEquals(6, firstPassengerTrain.getFirstWagon().getNumberOfWagonsAttached());
+
+        // a wagon that has left its train can be hooked on a wagon again
+        Shunter.detachOneWagon(firstPassengerTrain, pwList.get(5));
+        assertTrue(Shunter.hookWagonOnWagon(new PassengerWagon(62, 100), pwList.get(5)));
+        Shunter.detachAllFromTrain(firstPassengerTrain, pwList.get(3));
+        assertTrue(Shunter.hookWagonOnWagon(rear, new PassengerWagon(63, 100)));
+        assertFalse(Shunter.hookWagonOnWagon(pwList.get(2), new PassengerWagon(64, 100)));
+    }
+
+    @Test
+    public void checkHookWagonOnTrainFrontKeepsOrder() {
+        makeTrains();
+        Shunter.hookWagonOnTrainFront(firstPassengerTrain, new PassengerWagon(21, 140));
+        assertEquals(2, firstPassengerTrain.getPositionOfWagon(pwList.get(0).getWagonId()));
+        assertEquals(pwList.get(5), firstPassengerTrain.getLastWagon());
+    }
+
+    @Test
+    public void checkDetachOnlyWagon() {
+        Train train = new Train(new Locomotive(1, 4), "Utrecht", "Breda");
+        Shunter.hookWagonOnTrainRear(train, fwList.get(0));
+        assertTrue(Shunter.detachOneWagon(train, fwList.get(0)));
+        assertTrue(train.hasNoWagons());
+        assertEquals(0, train.getNumberOfWagons());
+        assertNull(train.getLastWagon());
+    }
+
+    @Test
+    public void checkShuntingVeryLongTrains() {
+        int numberOfWagons = 1_000_000;
+        Train longTrain = new Train(new Locomotive(9001, 2 * numberOfWagons), "Rotterdam", "Duisburg");
+        Train otherTrain = new Train(new Locomotive(9002, 2 * numberOfWagons), "Rotterdam", "Genoa");
+        FreightWagon first = new FreightWagon(0, 50);
+        Shunter.hookWagonOnTrainRear(longTrain, first);
+        for (int id = 1; id < numberOfWagons; id++) {
+            assertTrue(Shunter.hookWagonOnTrainRear(longTrain, new FreightWagon(id, 50)));
+        }
+        assertEquals(numberOfWagons, longTrain.getNumberOfWagons());
+        assertEquals(numberOfWagons - 1, first.getNumberOfWagonsAttached());
+        assertEquals(numberOfWagons - 1, first.getLastWagonAttached().getWagonId());
+
+        Wagon middle = longTrain.getWagonOnPosition(numberOfWagons / 2 + 1);
+        assertEquals(numberOfWagons / 2, middle.getWagonId());
+        assertTrue(Shunter.moveAllFromTrain(longTrain, otherTrain, middle));
+        assertEquals(numberOfWagons / 2, longTrain.getNumberOfWagons());
+        assertEquals(numberOfWagons / 2, otherTrain.getNumberOfWagons());
+
+        Wagon last = otherTrain.getLastWagon();
+        assertTrue(Shunter.moveOneWagon(otherTrain, longTrain, last));
+        assertEquals(last, longTrain.getLastWagon());
+        assertEquals(numberOfWagons / 2 + 1, longTrain.getPositionOfWagon(last.getWagonId()));
+
+        longTrain.resetNumberOfWagons();
+        otherTrain.resetNumberOfWagons();
+        assertEquals(numberOfWagons, longTrain.getNumberOfWagons() + otherTrain.getNumberOfWagons());
+        assertEquals(numberOfWagons / 2 * 50, otherTrain.getTotalMaxWeight() + 50);
+    }
+
+    @Test
+    public void checkPositionsAfterShunting() {
+        makeTrains();
+        Shunter.hookWagonOnTrainFront(secondPassengerTrain, new PassengerWagon(21, 140));
+        Shunter.moveAllFromTrain(firstPassengerTrain, secondPassengerTrain, pwList.get(3));
+        Shunter.moveOneWagon(firstPassengerTrain, secondPassengerTrain, pwList.get(0));
+        Shunter.hookWagonOnTrainFront(firstPassengerTrain, new PassengerWagon(43, 140));
+
+        int[] first = {43, 24, 17};
+        int[] second = {21, 32, 38, 11, 3};
+        for (int i = 0; i < first.length; i++) {
+            assertEquals(i + 1, firstPassengerTrain.getPositionOfWagon(first[i]));
+            assertEquals(first[i], firstPassengerTrain.getWagonOnPosition(i + 1).getWagonId());
+        }
+        for (int i = 0; i < second.length; i++) {
+            assertEquals(i + 1, secondPassengerTrain.getPositionOfWagon(second[i]));
+            assertEquals(second[i], secondPassengerTrain.getWagonOnPosition(i + 1).getWagonId());
+        }
+        assertEquals(-1, firstPassengerTrain.getPositionOfWagon(32));
+        assertThrows(IndexOutOfBoundsException.class, () -> firstPassengerTrain.getWagonOnPosition(4));
+        assertThrows(IndexOutOfBoundsException.class, () -> secondPassengerTrain.getWagonOnPosition(0));
+    }
+
+    @Test
+    public void checkDetachWagonWithSameIdFromOtherTrain() {
+        makeTrains();
+        PassengerWagon sameId = new PassengerWagon(24, 100);
+        assertFalse(Shunter.detachAllFromTrain(firstPassengerTrain, sameId));
+        assertEquals(6, firstPassengerTrain.getNumberOfWagons());
+    }
+
+    @Test
+    public void checkWagonsWithTheSameId() {
+        makeTrains();
+        PassengerWagon sameId = new PassengerWagon(24, 100);
+        assertTrue(Shunter.hookWagonOnTrainRear(secondPassengerTrain, new PassengerWagon(24, 80)));
+        assertTrue(Shunter.hookWagonOnTrainRear(firstPassengerTrain, sameId));
+        assertEquals(sameId, firstPassengerTrain.getWagonOnPosition(7));
+        assertEquals(2, firstPassengerTrain.getPositionOfWagon(24));
+
+        Yard yard = new Yard();
+        yard.addTrain(secondPassengerTrain);
+        yard.addTrain(firstPassengerTrain);
+        assertEquals(8, yard.getNumberOfWagons());
+        assertEquals(secondPassengerTrain, yard.getTrainOfWagon(24));
+        assertEquals(1, yard.getPositionOfWagon(24));
+
+        assertTrue(Shunter.detachOneWagon(firstPassengerTrain, sameId));
+        assertEquals(6, firstPassengerTrain.getNumberOfWagons());
+        assertEquals(pwList.get(1), firstPassengerTrain.getWagonOnPosition(2));
+        assertEquals(pwList.get(5), firstPassengerTrain.getLastWagon());
+        assertEquals(7, yard.getNumberOfWagons());
+
+        // the wagon that is left with the id is found again when the other one leaves the yard
+        assertTrue(Shunter.detachOneWagon(secondPassengerTrain, secondPassengerTrain.getFirstWagon()));
+        assertEquals(firstPassengerTrain, yard.getTrainOfWagon(24));
+        assertEquals(2, yard.getPositionOfWagon(24));
+        assertEquals(6, yard.getNumberOfWagons());
+    }
+
+    @Test
+    public void checkYardFollowsShunting() {
+        makeTrains();
+        Yard yard = new Yard();
+        yard.addTrain(firstPassengerTrain);
+        yard.addTrain(secondPassengerTrain);
+        assertEquals(6, yard.getNumberOfWagons());
+        assertEquals(firstPassengerTrain, yard.getTrainOfWagon(17));
+
+        Shunter.moveAllFromTrain(firstPassengerTrain, secondPassengerTrain, pwList.get(2));
+        Shunter.moveOneWagon(secondPassengerTrain, firstPassengerTrain, pwList.get(4));
+        Shunter.detachOneWagon(firstPassengerTrain, pwList.get(0));
+        Shunter.hookWagonOnTrainFront(secondPassengerTrain, new PassengerWagon(21, 140));
+
+        assertEquals(6, yard.getNumberOfWagons());
+        assertNull(yard.getTrainOfWagon(3));
+        assertEquals(-1, yard.getPositionOfWagon(3));
+        assertArrayEquals(new Train[]{firstPassengerTrain, secondPassengerTrain, secondPassengerTrain, null},
+                yard.getTrainsOfWagons(new int[]{38, 17, 21, 99}));
+        assertArrayEquals(new int[]{2, 2, 1, -1}, yard.getPositionsOfWagons(new int[]{38, 17, 21, 99}));
+        assertThrows(IllegalArgumentException.class, () -> new Yard().addTrain(firstPassengerTrain));
+    }
+
+    @Test
+    public void checkShuntingPlanIsCarriedOut() {
+        makeTrains();
+        ShuntingPlan plan = new ShuntingPlan();
+        plan.moveOneWagon(firstPassengerTrain, secondPassengerTrain, pwList.get(0));
+        plan.detachOneWagon(firstPassengerTrain, pwList.get(3));
+        plan.hookWagonOnTrainFront(secondPassengerTrain, pwList.get(3));
+        plan.moveAllFromTrain(firstPassengerTrain, secondPassengerTrain, pwList.get(4));
+        assertTrue(plan.validate());
+        assertTrue(plan.execute());
+
+        assertEquals(2, firstPassengerTrain.getNumberOfWagons());
+        assertEquals(4, secondPassengerTrain.getNumberOfWagons());
+        int[] second = {32, 3, 38, 11};
+        for (int i = 0; i < second.length; i++) {
+            assertEquals(second[i], secondPassengerTrain.getWagonOnPosition(i + 1).getWagonId());
+        }
+    }
+
+    @Test
+    public void checkShuntingPlanRejectedByValidation() {
+        makeTrains();
+        Train smallTrain = new Train(new Locomotive(12, 1), "Utrecht", "Zwolle");
+        ShuntingPlan plan = new ShuntingPlan();
+        plan.moveOneWagon(firstPassengerTrain, smallTrain, pwList.get(0));
+        plan.moveOneWagon(firstPassengerTrain, smallTrain, pwList.get(1));
+        assertFalse(plan.validate());
+        assertFalse(plan.execute());
+        assertEquals(6, firstPassengerTrain.getNumberOfWagons());
+        assertTrue(smallTrain.hasNoWagons());
+
+        plan = new ShuntingPlan();
+        plan.moveOneWagon(firstPassengerTrain, secondPassengerTrain, pwList.get(0));
+        plan.hookWagonOnTrainRear(secondPassengerTrain, fwList.get(0));
+        assertFalse(plan.execute());
+        assertEquals(pwList.get(0), firstPassengerTrain.getFirstWagon());
+    }
+
+    @Test
+    public void checkShuntingPlanRolledBack() {
+        makeTrains();
+        Train smallTrain = new Train(new Locomotive(12, 2), "Utrecht", "Zwolle");
+        PassengerWagon smallTrainWagon = new PassengerWagon(50, 100);
+        Shunter.hookWagonOnTrainRear(smallTrain, smallTrainWagon);
+        // the plan cannot see a wagon linked without the Shunter, which only counts it in its next operation
+        smallTrainWagon.setNextWagon(new PassengerWagon(51, 100));
+        ShuntingPlan plan = new ShuntingPlan();
+        plan.hookWagonOnTrainFront(secondPassengerTrain, new PassengerWagon(21, 140));
+        plan.moveOneWagon(firstPassengerTrain, secondPassengerTrain, pwList.get(2));
+        plan.moveAllFromTrain(firstPassengerTrain, secondPassengerTrain, pwList.get(4));
+        plan.detachOneWagon(firstPassengerTrain, pwList.get(0));
+        plan.detachAllFromTrain(firstPassengerTrain, pwList.get(3));
+        plan.moveOneWagon(secondPassengerTrain, smallTrain, pwList.get(2));
+        assertTrue(plan.validate());
+        assertFalse(plan.execute());
+
+        assertEquals(6, firstPassengerTrain.getNumberOfWagons());
+        for (int i = 0; i < pwList.size(); i++) {
+            assertEquals(pwList.get(i), firstPassengerTrain.getWagonOnPosition(i + 1));
+        }
+        assertEquals(pwList.get(5), firstPassengerTrain.getLastWagon());
+        assertTrue(secondPassengerTrain.hasNoWagons());
+        assertEquals(0, secondPassengerTrain.getNumberOfWagons());
+        assertEquals(2, smallTrain.getNumberOfWagons());
+    }
+
+    @Test
+    public void checkShuntingPlanFollowsRowsOfWagons() {
+        makeTrains();
+        Shunter.detachOneWagon(firstPassengerTrain, pwList.get(5));
+        Wagon row = new PassengerWagon(50, 100);
+        for (int id = 51; id < 54; id++) {
+            row.getLastWagonAttached().setNextWagon(new PassengerWagon(id, 100));
+        }
+        // 5 wagons and a row of 4 is more than thomas can pull
+        ShuntingPlan plan = new ShuntingPlan();
+        plan.hookWagonOnTrainRear(firstPassengerTrain, row);
+        assertFalse(plan.validate());
+        assertFalse(plan.execute());
+        assertEquals(5, firstPassengerTrain.getNumberOfWagons());
+
+        Train smallTrain = new Train(new Locomotive(12, 1), "Utrecht", "Zwolle");
+        plan = new ShuntingPlan();
+        plan.moveAllFromTrain(firstPassengerTrain, smallTrain, pwList.get(2));
+        assertFalse(plan.validate());
+        assertFalse(plan.execute());
+        assertTrue(smallTrain.hasNoWagons());
+
+        // the rows are followed: second gets 32 and 38, then 24 and 17 in front, 24 goes back and the row is hooked on
+        plan = new ShuntingPlan();
+        plan.moveAllFromTrain(firstPassengerTrain, secondPassengerTrain, pwList.get(3));
+        plan.detachAllFromTrain(firstPassengerTrain, pwList.get(1));
+        plan.hookWagonOnTrainFront(secondPassengerTrain, pwList.get(1));
+        plan.moveOneWagon(secondPassengerTrain, firstPassengerTrain, pwList.get(1));
+        plan.hookWagonOnTrainRear(secondPassengerTrain, row);
+        plan.moveAllFromTrain(secondPassengerTrain, smallTrain, pwList.get(3));
+        // smallTrain would get 32, 38 and the row
+        assertFalse(plan.validate());
+
+        plan = new ShuntingPlan();
+        plan.moveAllFromTrain(firstPassengerTrain, secondPassengerTrain, pwList.get(3));
+        plan.detachAllFromTrain(firstPassengerTrain, pwList.get(1));
+        plan.hookWagonOnTrainFront(secondPassengerTrain, pwList.get(1));
+        plan.moveOneWagon(secondPassengerTrain, firstPassengerTrain, pwList.get(1));
+        plan.moveOneWagon(secondPassengerTrain, smallTrain, pwList.get(4));
+        plan.hookWagonOnTrainRear(secondPassengerTrain, row);
+        assertTrue(plan.validate());
+        assertTrue(plan.execute());
+        assertArrayEquals(new int[]{3, 24}, firstPassengerTrain.wagonIds().toArray());
+        assertArrayEquals(new int[]{17, 32, 50, 51, 52, 53}, secondPassengerTrain.wagonIds().toArray());
+        assertArrayEquals(new int[]{38}, smallTrain.wagonIds().toArray());
+    }
+
+    @Test
+    public void checkConcurrentShuntingKeepsAllWagons() throws Exception {
+        int numberOfTrains = 16;
+        int wagonsPerTrain = 500;
+        int numberOfThreads = 8;
+        Yard yard = new Yard();
+        List<FreightWagon> wagons = new ArrayList<>();
+        for (int t = 0; t < numberOfTrains; t++) {
+            Train train = new Train(new Locomotive(t, numberOfTrains * wagonsPerTrain), "Venlo", "Milan");
+            for (int w = 0; w < wagonsPerTrain; w++) {
+                FreightWagon wagon = new FreightWagon(t * wagonsPerTrain + w, 10);
+                Shunter.hookWagonOnTrainRear(train, wagon);
+                wagons.add(wagon);
+            }
+            yard.addTrain(train);
+        }
+        List<Train> trains = yard.getTrains();
+
+        ExecutorService dispatchers = Executors.newFixedThreadPool(numberOfThreads);
+        List<Future<?>> results = new ArrayList<>();
+        for (int d = 0; d < numberOfThreads; d++) {
+            long seed = d;
+            results.add(dispatchers.submit(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 20_000; i++) {
+                    Wagon wagon = wagons.get(random.nextInt(wagons.size()));
+                    Train from = yard.getTrainOfWagon(wagon.getWagonId());
+                    Train to = trains.get(random.nextInt(trains.size()));
+                    if (from == null) {
+                        // the wagon is being moved by another dispatcher
+                        continue;
+                    }
+                    if (random.nextInt(10) == 0) {
+                        ConcurrentShunter.moveAllFromTrain(from, to, wagon);
+                    } else {
+                        ConcurrentShunter.moveOneWagon(from, to, wagon);
+                    }
+                    assertEquals(0, ConcurrentShunter.getTotalMaxWeight(to) % 10);
+                }
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        dispatchers.shutdown();
+
+        int total = 0;
+        for (Train train : trains) {
+            int numberOfWagons = ConcurrentShunter.getNumberOfWagons(train);
+            train.resetNumberOfWagons();
+            assertEquals(train.getNumberOfWagons(), numberOfWagons);
+            assertEquals(numberOfWagons * 10, ConcurrentShunter.getTotalMaxWeight(train));
+            total += numberOfWagons;
+        }
+        assertEquals(numberOfTrains * wagonsPerTrain, total);
+        assertEquals(numberOfTrains * wagonsPerTrain, yard.getNumberOfWagons());
+        for (Wagon wagon : wagons) {
+            assertNotEquals(-1, yard.getPositionOfWagon(wagon.getWagonId()));
+        }
+    }
+
+    @Test
+    public void checkTotalsFollowShunting() {
+        makeTrains();
+        Shunter.moveAllFromTrain(firstPassengerTrain, secondPassengerTrain, pwList.get(3));
+        Shunter.moveOneWagon(firstPassengerTrain, secondPassengerTrain, pwList.get(1));
+        Shunter.hookWagonOnTrainFront(firstPassengerTrain, new PassengerWagon(21, 45));
+        assertEquals(100 + 140 + 45, firstPassengerTrain.getNumberOfSeats());
+        assertEquals(150 + 140 + 100 + 100, secondPassengerTrain.getNumberOfSeats());
+        assertEquals(0, secondPassengerTrain.getTotalMaxWeight());
+
+        Shunter.detachAllFromTrain(firstFreightTrain, fwList.get(4));
+        Shunter.detachOneWagon(firstFreightTrain, fwList.get(0));
+        assertEquals(100 + 140 + 150, firstFreightTrain.getTotalMaxWeight());
+        assertEquals(0, firstFreightTrain.getNumberOfSeats());
+        assertTrue(firstPassengerTrain.toString().endsWith("with 3 wagons and 285 seats from Amsterdam to Haarlem"));
+    }
+
+    @Test
+    public void checkCompactTrain() {
+        makeTrains();
+        CompactTrain compactTrain = CompactTrain.of(firstPassengerTrain);
+        assertEquals(6, compactTrain.getNumberOfWagons());
+        assertEquals(firstPassengerTrain.getNumberOfSeats(), compactTrain.getNumberOfSeats());
+        assertEquals(4, compactTrain.getPositionOfWagon(32));
+
+        assertTrue(compactTrain.detachOneWagon(32));
+        assertFalse(compactTrain.hookWagonOnTrainRear(new FreightWagon(66, 300)));
+        assertTrue(compactTrain.hookWagonOnTrainFront(new PassengerWagon(21, 140)));
+        assertTrue(compactTrain.hookWagonOnTrainRear(new PassengerWagon(43, 10)));
+        assertFalse(compactTrain.hookWagonOnTrainRear(new PassengerWagon(44, 10)));
+
+        int[] expected = {21, 3, 24, 17, 38, 11, 43};
+        int position = 0;
+        for (Wagon wagon : compactTrain) {
+            assertEquals(expected[position], wagon.getWagonId());
+            position++;
+        }
+        assertEquals(expected.length, position);
+        // every wagon of the iterator is a wagon of its own
+        List<Wagon> wagons = new ArrayList<>();
+        compactTrain.forEach(wagons::add);
+        assertEquals(21, wagons.get(0).getWagonId());
+        assertEquals(43, wagons.get(6).getWagonId());
+        assertEquals(730 - 150 + 140 + 10, compactTrain.getNumberOfSeats());
+        assertEquals(38, compactTrain.getWagonOnPosition(5).getWagonId());
+        assertEquals(7, compactTrain.getPositionOfWagon(43));
+        assertEquals(-1, compactTrain.getPositionOfWagon(32));
+        assertEquals(0, compactTrain.getTotalMaxWeight());
+
+        CompactTrain longTrain = new CompactTrain(new Locomotive(9002, 1000), "Venlo", "Genua", 1);
+        for (int id = 0; id < 1000; id++) {
+            assertTrue(longTrain.hookWagonOnTrainRear(new FreightWagon(id * 64, id)));
+        }
+        for (int id = 0; id < 1000; id += 2) {
+            assertTrue(longTrain.detachOneWagon(id * 64));
+        }
+        assertFalse(longTrain.detachOneWagon(0));
+        for (int id = 1; id < 1000; id += 2) {
+            assertEquals((id + 1) / 2, longTrain.getPositionOfWagon(id * 64));
+            assertEquals(id * 64, longTrain.getWagonOnPosition((id + 1) / 2).getWagonId());
+        }
+        assertEquals(250_000, longTrain.getTotalMaxWeight());
+    }
+
+    @Test
+    public void checkParallelStreamOfWagons() {
+        int numberOfWagons = 100_000;
+        Train longTrain = new Train(new Locomotive(9001, numberOfWagons), "Rotterdam", "Duisburg");
+        for (int id = 0; id < numberOfWagons; id++) {
+            Shunter.hookWagonOnTrainRear(longTrain, new FreightWagon(id, id % 7));
+        }
+        assertEquals((long) numberOfWagons * (numberOfWagons - 1) / 2, longTrain.wagonIds().parallel().asLongStream().sum());
+        assertArrayEquals(longTrain.wagonIds().toArray(), longTrain.wagonIds().parallel().toArray());
+        assertEquals(longTrain.getTotalMaxWeight(),
+                longTrain.parallelStream().mapToInt(wagon -> ((FreightWagon) wagon).getMaxWeight()).sum());
+        assertEquals(numberOfWagons, longTrain.parallelStream().count());
+        assertEquals(numberOfWagons, longTrain.spliterator().getExactSizeIfKnown());
+        assertEquals(0, new Train(new Locomotive(1, 1), "Utrecht", "Gouda").stream().count());
+    }
+
+    @Test
+    public void checkSnapshotDoesNotChange() {
+        makeTrains();
+        TrainSnapshot before = firstPassengerTrain.getSnapshot();
+        assertSame(before, firstPassengerTrain.getSnapshot());
+        assertEquals(6, before.getNumberOfWagons());
+        assertEquals(firstPassengerTrain.getNumberOfSeats(), before.getNumberOfSeats());
+
+        Shunter.moveAllFromTrain(firstPassengerTrain, secondPassengerTrain, pwList.get(3));
+        Shunter.detachOneWagon(firstPassengerTrain, pwList.get(1));
+        Shunter.hookWagonOnTrainFront(firstPassengerTrain, new PassengerWagon(21, 45));
+        TrainSnapshot after = firstPassengerTrain.getSnapshot();
+
+        int[] expectedBefore = {3, 24, 17, 32, 38, 11};
+        int position = 0;
+        for (Wagon wagon : before) {
+            assertEquals(expectedBefore[position], wagon.getWagonId());
+            position++;
+        }
+        assertEquals(expectedBefore.length, position);
+        assertEquals(32, before.getWagonOnPosition(4).getWagonId());
+
+        assertEquals(3, after.getVersion());
+        assertEquals(3, after.getNumberOfWagons());
+        assertEquals(21, after.getWagonOnPosition(1).getWagonId());
+        assertEquals(17, after.getWagonOnPosition(3).getWagonId());
+        assertEquals(firstPassengerTrain.getNumberOfSeats(), after.getNumberOfSeats());
+
+        TrainSnapshot moved = secondPassengerTrain.getSnapshot();
+        Shunter.moveAllFromTrain(secondPassengerTrain, firstPassengerTrain, pwList.get(3));
+        assertEquals(32, firstPassengerTrain.getSnapshot().getWagonOnPosition(4).getWagonId());
+        assertEquals(secondPassengerTrain.getNumberOfWagons(), secondPassengerTrain.getSnapshot().getNumberOfWagons());
+        assertEquals(moved.getNumberOfWagons() - 3, secondPassengerTrain.getSnapshot().getNumberOfWagons());
+        assertThrows(IndexOutOfBoundsException.class, () -> after.getWagonOnPosition(4));
+    }
+
+    @Test
+    public void checkJournalReplaysShunting(@TempDir Path directory) throws IOException {
+        makeTrains();
+        Yard yard = new Yard();
+        yard.addTrain(firstPassengerTrain);
+        ShuntingJournal journal = ShuntingJournal.create(yard, directory, 4);
+        journal.addTrain(secondPassengerTrain);
+        Train freightTrain = new Train(new Locomotive(1, 10), "Rotterdam", "Duisburg");
+        journal.addTrain(freightTrain);
+
+        assertTrue(journal.moveAllFromTrain(firstPassengerTrain, secondPassengerTrain, pwList.get(2)));
+        assertTrue(journal.moveOneWagon(secondPassengerTrain, firstPassengerTrain, pwList.get(4)));
+        assertTrue(journal.detachOneWagon(firstPassengerTrain, pwList.get(0)));
+        assertTrue(journal.hookWagonOnTrainFront(secondPassengerTrain, new PassengerWagon(21, 140)));
+        assertFalse(journal.hookWagonOnTrainRear(secondPassengerTrain, new FreightWagon(66, 300)));
+        FreightWagon row = new FreightWagon(70, 300);
+        row.setNextWagon(new FreightWagon(71, 310));
+        assertTrue(journal.hookWagonOnTrainRear(freightTrain, row));
+        assertTrue(journal.detachAllFromTrain(secondPassengerTrain, pwList.get(5)));
+        assertThrows(IllegalArgumentException.class,
+                () -> journal.addTrain(new Train(new Locomotive(1, 3), "Utrecht", "Gouda")));
+
+        // the journal is not closed, as if the program stopped here
+        Yard replayed = ShuntingJournal.replay(directory);
+        assertEquals(yard.getTrains().size(), replayed.getTrains().size());
+        for (int i = 0; i < yard.getTrains().size(); i++) {
+            Train train = yard.getTrains().get(i);
+            Train copy = replayed.getTrains().get(i);
+            assertEquals(train.toString(), copy.toString());
+            assertArrayEquals(train.wagonIds().toArray(), copy.wagonIds().toArray());
+            assertEquals(train.getTotalMaxWeight(), copy.getTotalMaxWeight());
+        }
+        assertEquals(yard.getNumberOfWagons(), replayed.getNumberOfWagons());
+        journal.close();
+
+        ShuntingJournal reopened = ShuntingJournal.open(directory, 100);
+        Train reopenedFreightTrain = reopened.getYard().getTrainOfWagon(71);
+        assertTrue(reopened.detachOneWagon(reopenedFreightTrain, reopenedFreightTrain.getFirstWagon()));
+        reopened.close();
+        assertEquals(1, ShuntingJournal.replay(directory).getTrainOfWagon(71).getNumberOfWagons());
+
+        // a snapshot is not a file of a YardWriter, and the other way around
+        assertThrows(IOException.class, () -> YardReader.read(directory.resolve("yard.snapshot")));
+        YardWriter.write(reopened.getYard(), directory.resolve("yard.snapshot"));
+        assertThrows(IOException.class, () -> ShuntingJournal.replay(directory));
+    }
+
+    @Test
+    public void checkFormationPlan() {
+        // wagons 1 to 12 go to Berlin, 13 to 15 to Paris, 16 to Praha
+        Function<Wagon, String> destinationOf = wagon -> wagon.getWagonId() <= 12 ? "Berlin"
+                : wagon.getWagonId() <= 15 ? "Paris" : "Praha";
+        Train firstInbound = new Train(new Locomotive(1, 20), "Venlo", "Kijfhoek");
+        for (int wagonId : new int[]{1, 2, 13, 3, 4, 14, 15, 5}) {
+            Shunter.hookWagonOnTrainRear(firstInbound, new FreightWagon(wagonId, 100));
+        }
+        Train secondInbound = new Train(new Locomotive(2, 20), "Emmerich", "Kijfhoek");
+        for (int wagonId : new int[]{16, 6, 7, 8, 9, 10, 11, 12}) {
+            Shunter.hookWagonOnTrainRear(secondInbound, new FreightWagon(wagonId, 100));
+        }
+        Train toBerlin = new Train(new Locomotive(3, 5), "Kijfhoek", "Berlin");
+        Train alsoToBerlin = new Train(new Locomotive(4, 10), "Kijfhoek", "Berlin");
+        Train toParis = new Train(new Locomotive(5, 10), "Kijfhoek", "Paris");
+        Shunter.hookWagonOnTrainRear(toParis, new FreightWagon(30, 100));
+
+        ShuntingPlan plan = FormationPlanner.plan(List.of(firstInbound, secondInbound),
+                List.of(toBerlin, alsoToBerlin, toParis), destinationOf);
+        // 13 is moved on its own, then 5, 14 and 15, 1 to 4 and 6 to 12, 16 has no outbound train
+        assertEquals(1 + 3 + 1, plan.getNumberOfSteps());
+        assertTrue(plan.execute());
+
+        assertEquals(0, firstInbound.getNumberOfWagons());
+        assertEquals(1, secondInbound.getNumberOfWagons());
+        assertEquals(16, secondInbound.getFirstWagon().getWagonId());
+        assertEquals(12, toBerlin.getNumberOfWagons() + alsoToBerlin.getNumberOfWagons());
+        assertEquals(4, toParis.getNumberOfWagons());
+        assertEquals(5, toBerlin.getNumberOfWagons());
+        for (Train train : List.of(toBerlin, alsoToBerlin)) {
+            train.forEach(wagon -> assertEquals("Berlin", destinationOf.apply(wagon)));
+        }
+        assertEquals(List.of(30, 13, 14, 15), toParis.stream().map(Wagon::getWagonId).collect(Collectors.toList()));
+        assertThrows(IllegalArgumentException.class,
+                () -> FormationPlanner.plan(List.of(toParis), List.of(toParis), destinationOf));
+
+        // without room for the wagon on the rear, the wagons in front of it are moved one by one
+        Shunter.hookWagonOnTrainRear(secondInbound, new FreightWagon(1, 100));
+        Shunter.hookWagonOnTrainRear(secondInbound, new FreightWagon(17, 100));
+        Shunter.hookWagonOnTrainRear(secondInbound, new FreightWagon(2, 100));
+        plan = FormationPlanner.plan(List.of(secondInbound), List.of(alsoToBerlin), destinationOf);
+        assertEquals(2, plan.getNumberOfSteps());
+        assertTrue(plan.execute());
+        assertEquals(List.of(16, 17), secondInbound.stream().map(Wagon::getWagonId).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void checkWagonAssignmentUsesFewLocomotives() {
+        List<Wagon> wagons = new ArrayList<>();
+        for (int wagonId = 0; wagonId < 20; wagonId++) {
+            wagons.add(wagonId < 15 ? new PassengerWagon(wagonId, 80) : new FreightWagon(wagonId, 60));
+        }
+        List<Locomotive> locomotives = List.of(new Locomotive(1, 3), new Locomotive(2, 10),
+                new Locomotive(3, 5), new Locomotive(4, 10), new Locomotive(5, 6));
+        WagonAssignment assignment = WagonAssignment.assign(wagons, locomotives, "Amsterdam", "Berlin");
+        assertEquals(3, assignment.getTrains().size());
+        assertTrue(assignment.getUnassignedWagons().isEmpty());
+        int passengerWagons = 0;
+        for (Train train : assignment.getTrains()) {
+            assertTrue(train.getNumberOfWagons() <= train.getEngine().getMaxWagons());
+            assertTrue(train.stream().allMatch(wagon -> wagon.getClass() == train.getFirstWagon().getClass()));
+            passengerWagons += train.isPassengerTrain() ? train.getNumberOfWagons() : 0;
+        }
+        assertEquals(15, passengerWagons);
+
+        List<Wagon> tooMany = new ArrayList<>();
+        for (int wagonId = 0; wagonId < 100_000; wagonId++) {
+            tooMany.add(wagonId % 3 == 0 ? new FreightWagon(wagonId, 60) : new PassengerWagon(wagonId, 80));
+        }
+        List<Locomotive> fleet = new ArrayList<>();
+        for (int locNumber = 0; locNumber < 900; locNumber++) {
+            fleet.add(new Locomotive(locNumber, 10 + locNumber % 200));
+        }
+        assignment = WagonAssignment.assign(tooMany, fleet, "Rotterdam", "Duisburg");
+        int assigned = assignment.getTrains().stream().mapToInt(Train::getNumberOfWagons).sum();
+        assertEquals(100_000, assigned + assignment.getUnassignedWagons().size());
+        assertEquals(fleet.stream().mapToInt(Locomotive::getMaxWagons).sum(), assigned);
+        assertThrows(IllegalArgumentException.class, () -> WagonAssignment.assign(tooMany, fleet, "Rotterdam", "Duisburg"));
+    }
+
+    @Test
+    public void checkSplitJoinAndReverseTrains() {
+        makeTrains();
+        Yard yard = new Yard();
+        yard.addTrain(firstPassengerTrain);
+        TrainSnapshot before = firstPassengerTrain.getSnapshot();
+
+        assertNull(Shunter.splitTrainAt(firstPassengerTrain, 0, new Locomotive(6666, 10)));
+        assertNull(Shunter.splitTrainAt(firstPassengerTrain, 7, new Locomotive(6666, 10)));
+        // three wagons do not fit behind a locomotive for one or two
+        assertNull(Shunter.splitTrainAt(firstPassengerTrain, 4, new Locomotive(6666, 1)));
+        assertNull(Shunter.splitTrainAt(firstPassengerTrain, 4, new Locomotive(6666, 2)));
+        assertEquals(6, firstPassengerTrain.getNumberOfWagons());
+        Train rear = Shunter.splitTrainAt(firstPassengerTrain, 4, new Locomotive(6666, 10));
+        assertEquals(3, firstPassengerTrain.getNumberOfWagons());
+        assertEquals(3, rear.getNumberOfWagons());
+        assertEquals(pwList.get(3), rear.getFirstWagon());
+        assertEquals("Haarlem", rear.getDestination());
+        assertEquals(yard, rear.getYard());
+        assertEquals(rear, yard.getTrainOfWagon(38));
+        assertEquals(2, yard.getPositionOfWagon(38));
+
+        Shunter.reverseTrain(rear);
+        assertEquals(pwList.get(5), rear.getFirstWagon());
+        assertEquals(pwList.get(3), rear.getFirstWagon().getLastWagonAttached());
+        assertEquals(3, rear.getPositionOfWagon(32));
+        assertEquals(pwList.get(4), rear.getWagonOnPosition(2));
+        assertNull(pwList.get(5).getPreviousWagon());
+        assertEquals(pwList.get(4), pwList.get(3).getPreviousWagon());
+
+        assertFalse(Shunter.joinTrains(firstFreightTrain, rear));
+        Train smallTrain = new Train(new Locomotive(7777, 3), "Haarlem", "Leiden");
+        Shunter.hookWagonOnTrainRear(smallTrain, new PassengerWagon(70, 100));
+        Shunter.hookWagonOnTrainRear(smallTrain, new PassengerWagon(71, 100));
+        assertFalse(Shunter.joinTrains(smallTrain, rear));
+        assertEquals(2, smallTrain.getNumberOfWagons());
+        assertEquals(3, rear.getNumberOfWagons());
+        assertTrue(Shunter.joinTrains(firstPassengerTrain, rear));
+        assertTrue(rear.hasNoWagons());
+        assertEquals(6, firstPassengerTrain.getNumberOfWagons());
+        assertEquals(firstPassengerTrain, yard.getTrainOfWagon(11));
+        assertEquals(6, yard.getPositionOfWagon(32));
+        assertEquals(6, yard.getNumberOfWagons());
+        assertEquals(pwList.get(3), firstPassengerTrain.getSnapshot().getWagonOnPosition(6));
+        assertEquals(pwList.get(5), before.getWagonOnPosition(6));
+    }
+
+    @Test
+    public void checkYardFileRoundTrip(@TempDir Path directory) throws IOException {
+        makeTrains();
+        Yard yard = new Yard();
+        yard.addTrain(firstPassengerTrain);
+        yard.addTrain(firstFreightTrain);
+        Train otherTrain = new Train(new Locomotive(-9, 100_000), null, "Groningen");
+        Shunter.hookWagonOnTrainRear(otherTrain, new FreightWagon(Integer.MIN_VALUE, 70_000));
+        Shunter.hookWagonOnTrainRear(otherTrain, new FreightWagon(Integer.MAX_VALUE, 0));
+        yard.addTrain(otherTrain);
+        yard.addTrain(new Train(new Locomotive(7, 3), "Zwolle", "Zwolle"));
+
+        Path file = directory.resolve("yard.bin");
+        YardWriter.write(yard, file);
+        Yard read = YardReader.read(file);
+
+        assertEquals(4, read.getTrains().size());
+        assertEquals(yard.getNumberOfWagons(), read.getNumberOfWagons());
+        for (int t = 0; t < 4; t++) {
+            Train written = yard.getTrains().get(t);
+            Train train = read.getTrains().get(t);
+            assertEquals(written.toString(), train.toString());
+            assertEquals(written.getEngine().getLocNumber(), train.getEngine().getLocNumber());
+            assertEquals(written.getNumberOfSeats(), train.getNumberOfSeats());
+            assertEquals(written.getTotalMaxWeight(), train.getTotalMaxWeight());
+        }
+        Train readOtherTrain = read.getTrainOfWagon(Integer.MAX_VALUE);
+        assertNull(readOtherTrain.getOrigin());
+        assertEquals(2, readOtherTrain.getPositionOfWagon(Integer.MAX_VALUE));
+        assertEquals(Integer.MAX_VALUE, readOtherTrain.getLastWagon().getWagonId());
+        assertEquals(readOtherTrain.getFirstWagon(), readOtherTrain.getLastWagon().getPreviousWagon());
+        assertEquals(70_000, readOtherTrain.getTotalMaxWeight());
+        assertTrue(read.getTrainOfWagon(24).isPassengerTrain());
+
+        // a file that ends in the middle of a train cannot be read
+        Path truncated = directory.resolve("truncated.bin");
+        Files.write(truncated, Arrays.copyOf(Files.readAllBytes(file), 30));
+        assertThrows(IOException.class, () -> YardReader.read(truncated));
+        // a train is only added to the yard once all its wagons are read
+        Yard partial = new Yard();
+        try (YardReader reader = new YardReader(truncated)) {
+            assertThrows(IOException.class, () -> reader.readTrain(partial));
+        }
+        assertTrue(partial.getTrains().isEmpty());
+        Files.write(truncated, new byte[]{1, 2, 3});
+        assertThrows(IOException.class, () -> YardReader.read(truncated));
+    }
+
+    @Test
+    public void checkShunterMetrics() {
+        makeTrains();
+        ShunterMetrics.reset();
+        ShunterMetrics.enable();
+        try {
+            Shunter.moveAllFromTrain(firstPassengerTrain, secondPassengerTrain, pwList.get(3));
+            Shunter.moveAllFromTrain(firstPassengerTrain, secondPassengerTrain, pwList.get(3));
+            Shunter.moveOneWagon(firstPassengerTrain, firstFreightTrain, pwList.get(0));
+            Shunter.hookWagonOnTrainRear(firstFreightTrain, new FreightWagon(66, 300));
+            Shunter.hookWagonOnTrainRear(firstFreightTrain, new FreightWagon(67, 300));
+            Shunter.hookWagonOnTrainRear(firstFreightTrain, new FreightWagon(68, 300));
+            firstPassengerTrain.getPositionOfWagon(17);
+            firstPassengerTrain.getPositionOfWagon(99);
+        } finally {
+            ShunterMetrics.disable();
+        }
+        Shunter.detachOneWagon(firstPassengerTrain, pwList.get(0));
+
+        ShunterMetrics.Snapshot metrics = ShunterMetrics.snapshot();
+        assertEquals(1, metrics.getAccepted(ShunterMetrics.Operation.MOVE_ALL));
+        assertEquals(3, metrics.getWagons(ShunterMetrics.Operation.MOVE_ALL));
+        assertEquals(1, metrics.getRejected(ShunterMetrics.Operation.MOVE_ALL, ShunterMetrics.Reason.NOT_ON_TRAIN));
+        assertEquals(1, metrics.getRejected(ShunterMetrics.Operation.MOVE_ONE, ShunterMetrics.Reason.WAGON_TYPE));
+        assertEquals(2, metrics.getAccepted(ShunterMetrics.Operation.HOOK_ON_REAR));
+        assertEquals(1, metrics.getRejected(ShunterMetrics.Operation.HOOK_ON_REAR, ShunterMetrics.Reason.CAPACITY));
+        assertEquals(1, metrics.getAccepted(ShunterMetrics.Operation.POSITION_OF_WAGON));
+        assertEquals(1, metrics.getRejected(ShunterMetrics.Operation.POSITION_OF_WAGON));
+        assertEquals(0, metrics.getAccepted(ShunterMetrics.Operation.DETACH_ONE));
+        assertEquals(2, Arrays.stream(metrics.getLatencyHistogram(ShunterMetrics.Operation.MOVE_ALL)).sum());
+        assertTrue(metrics.getLatencyPercentile(ShunterMetrics.Operation.MOVE_ALL, 99) > 0);
+        assertTrue(metrics.toString().contains("MOVE_ONE: 0 accepted, 1 rejected (WAGON_TYPE)"));
+    }
 }
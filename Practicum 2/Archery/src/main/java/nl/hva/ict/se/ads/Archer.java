@@ -1,9 +1,17 @@
 package nl.hva.ict.se.ads;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * Holds the name, archer-id and the points scored for 30 arrows.
@@ -17,7 +25,8 @@ public class Archer {
     public static int MAX_ARROWS = 3;
     public static int MAX_ROUNDS = 10;
     private static Random randomizer = new Random();
-    private static int id = 135788;
+    // archers can be created by several threads at once (see generateArchersSpliterator)
+    private static AtomicInteger id = new AtomicInteger(135788);
     private final int ID; // Once assigned a value is not allowed to change.
     private String firstName;
     private String surname;
@@ -40,8 +49,48 @@ public class Archer {
         this.firstName = firstName;
         this.surname = lastName;
         this.scoresPerRound = new ArrayList<>();
+        this.ID = id.getAndIncrement();
+    }
+
+    /**
+     * Constructs an archer that has been created before, for example an archer that has been written to a file
+     * (see {@link #writeTo(DataOutput)}). It keeps its ID, so no new ID is assigned.
+     */
+    private Archer(int id, String firstName, String lastName, int totalScore, int weightScore) {
         this.ID = id;
-        id++;
+        this.firstName = firstName;
+        this.surname = lastName;
+        this.scoresPerRound = new ArrayList<>();
+        this.totalScore = totalScore;
+        this.weightScore = weightScore;
+    }
+
+    /**
+     * Writes the ID, names and scores of this archer in a compact binary form, which can be read back
+     * with {@link #readFrom(DataInput)}. The scores of the separate rounds are not written.
+     *
+     * @param out where to write the archer to
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(ID);
+        // MAX_ROUNDS and MAX_ARROWS can be changed, so the scores do not always fit in a short
+        out.writeInt(totalScore);
+        out.writeInt(weightScore);
+        out.writeUTF(firstName);
+        out.writeUTF(surname);
+    }
+
+    /**
+     * Reads an archer written by {@link #writeTo(DataOutput)}, the archer keeps its ID.
+     *
+     * @param in where to read the archer from
+     * @return the archer
+     */
+    static Archer readFrom(DataInput in) throws IOException {
+        int id = in.readInt();
+        int totalScore = in.readInt();
+        int weightScore = in.readInt();
+        return new Archer(id, in.readUTF(), in.readUTF(), totalScore, weightScore);
     }
 
     /**
@@ -74,7 +123,7 @@ public class Archer {
         List<Archer> archers = new ArrayList<>(nrOfArchers);
         for (int i = 0; i < nrOfArchers; i++) {
             Archer archer = new Archer(Names.nextFirstName(), Names.nextSurname());
-            letArcherShoot(archer, nrOfArchers % 100 == 0);
+            letArcherShoot(archer, nrOfArchers % 100 == 0, randomizer);
             archers.add(archer);
         }
         return archers;
@@ -91,7 +140,89 @@ public class Archer {
      * @return
      */
     public static Iterator<Archer> generateArchers(long nrOfArchers) {
-        return null;
+        boolean isBeginner = nrOfArchers % 100 == 0;
+        return new Iterator<Archer>() {
+            private long generated;
+
+            @Override
+            public boolean hasNext() {
+                return generated < nrOfArchers;
+            }
+
+            @Override
+            public Archer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                generated++;
+                Archer archer = new Archer(Names.nextFirstName(), Names.nextSurname());
+                letArcherShoot(archer, isBeginner, randomizer);
+                return archer;
+            }
+        };
+    }
+
+    /**
+     * This methods creates a Spliterator that generates the archers, like {@link #generateArchers(long)},
+     * but can be split so the archers are generated on several cores at once, for example with
+     * {@code StreamSupport.stream(Archer.generateArchersSpliterator(n), true)}.
+     * Every part shoots with its own random generator, so the parts do not wait for each other.
+     * The archers of one part get increasing IDs, the IDs of different parts are mixed.
+     *
+     * @param nrOfArchers the number of archers the Spliterator will create.
+     * @return the Spliterator, it reports the number of archers it will still create.
+     */
+    public static Spliterator<Archer> generateArchersSpliterator(long nrOfArchers) {
+        return new ArcherSpliterator(nrOfArchers, nrOfArchers % 100 == 0, new SplittableRandom());
+    }
+
+    private static class ArcherSpliterator implements Spliterator<Archer> {
+        // a part with fewer archers is not split anymore
+        private static final long MIN_SPLIT_SIZE = 1 << 10;
+
+        private long remaining;
+        private final boolean isBeginner;
+        private final SplittableRandom seeds;
+        private final Random random;
+
+        private ArcherSpliterator(long remaining, boolean isBeginner, SplittableRandom seeds) {
+            this.remaining = remaining;
+            this.isBeginner = isBeginner;
+            this.seeds = seeds;
+            this.random = new Random(seeds.nextLong());
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Archer> action) {
+            if (remaining <= 0) {
+                return false;
+            }
+            remaining--;
+            Archer archer = new Archer(Names.nextFirstName(random), Names.nextSurname(random));
+            letArcherShoot(archer, isBeginner, random);
+            action.accept(archer);
+            return true;
+        }
+
+        @Override
+        public Spliterator<Archer> trySplit() {
+            if (remaining < 2 * MIN_SPLIT_SIZE) {
+                return null;
+            }
+            long half = remaining / 2;
+            remaining -= half;
+            return new ArcherSpliterator(half, isBeginner, seeds.split());
+        }
+
+        @Override
+        public long estimateSize() {
+            return remaining;
+        }
+
+        @Override
+        public int characteristics() {
+            return SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+        }
     }
 
     public int getId() {
@@ -116,22 +247,22 @@ public class Archer {
         return weightScore;
     }
 
-    private static void letArcherShoot(Archer archer, boolean isBeginner) {
+    private static void letArcherShoot(Archer archer, boolean isBeginner, Random random) {
         for (int round = 0; round < MAX_ROUNDS; round++) {
-            archer.registerScoreForRound(round, shootArrows(isBeginner ? 0 : 1));
+            archer.registerScoreForRound(round, shootArrows(isBeginner ? 0 : 1, random));
         }
     }
 
-    private static int[] shootArrows(int min) {
+    private static int[] shootArrows(int min, Random random) {
         int[] points = new int[MAX_ARROWS];
         for (int arrow = 0; arrow < MAX_ARROWS; arrow++) {
-            points[arrow] = shoot(min);
+            points[arrow] = shoot(min, random);
         }
         return points;
     }
 
-    private static int shoot(int min) {
-        return Math.max(min, randomizer.nextInt(11));
+    private static int shoot(int min, Random random) {
+        return Math.max(min, random.nextInt(11));
     }
 
     @Override
@@ -1,14 +1,56 @@
 package nl.hva.ict.se.ads;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collector;
+import java.util.stream.IntStream;
 
 /**
  * Given a list of Archer's this class can be used to sort the list using one of three sorting algorithms.
  */
 public class ChampionSelector {
+    // ranges up to this size are sorted with insertion sort
+    private static final int INSERTION_SORT_THRESHOLD = 32;
+    // ranges up to this size are not divided over threads anymore
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+    // the number of archers the Iterator version of quick sort keeps in memory, unless another number is given
+    private static final int DEFAULT_ARCHERS_IN_MEMORY = 1 << 20;
+    private static final int RUN_BUFFER_SIZE = 1 << 16;
+    // the most runs that are merged at once, so at most this many files are open
+    private static final int MAX_FAN_IN = 64;
+    // a pass of radix sort uses at most this many buckets, the IDs are sorted 16 bits at a time
+    private static final int MAX_BUCKETS = 1 << 16;
+    // every thread counts at least this many archers in a pass of radix sort
+    private static final int MIN_ARCHERS_PER_CHUNK = 1 << 14;
+
+    /**
+     * The ranking of a competition: the highest total score first, then the highest weight score,
+     * of archers with equal scores the archer with the lowest ID, who registered first, goes first.
+     */
+    public static final Comparator<Archer> RANKING = Comparator.comparingInt(Archer::getTotalScore).reversed()
+            .thenComparing(Comparator.comparingInt(Archer::getWeightScore).reversed())
+            .thenComparingInt(Archer::getId);
+
     /**
      * This method uses either selection sort or insertion sort for sorting the archers.
      */
@@ -31,48 +73,181 @@ public class ChampionSelector {
 
     /**
      * This method uses quick sort for sorting the archers.
+     * The archers are copied to an array, which is sorted with introsort: a range is partitioned in three parts
+     * around the median of its first, middle and last archer, so archers with equal scores are put in place at once
+     * and not partitioned again. When the partitioning gets deeper than twice the logarithm of the number of archers,
+     * the pivots keep being bad and the range is sorted with heap sort instead, so the sort never takes
+     * more than n log n comparisons. Small ranges are sorted with insertion sort.
+     * The sorted archers are written back to the list once.
      */
     public static List<Archer> quickSort(List<Archer> archers, Comparator<Archer> scoringScheme) {
-        quickSortAlgorithm(archers, 0, archers.size() - 1, scoringScheme);
+        Archer[] snapshot = archers.toArray(new Archer[0]);
+        quickSortAlgorithm(snapshot, 0, snapshot.length - 1, depthLimit(snapshot.length), scoringScheme);
+        writeBack(archers, snapshot);
+        return archers;
+    }
+
+    /**
+     * This method uses quick sort on all cores for sorting the archers.
+     * The archers are copied to an array, which is sorted by a ForkJoinPool: a range is partitioned like in
+     * {@link #quickSort(List, Comparator)} and the parts before and after the pivot are sorted as separate tasks,
+     * until a part is small enough to be sorted by one thread. The sorted archers are written back to the list once.
+     */
+    public static List<Archer> parallelQuickSort(List<Archer> archers, Comparator<Archer> scoringScheme) {
+        Archer[] snapshot = archers.toArray(new Archer[0]);
+        ForkJoinPool.commonPool().invoke(new QuickSortTask(snapshot, 0, snapshot.length - 1, scoringScheme));
+        writeBack(archers, snapshot);
         return archers;
     }
 
-    private static void quickSortAlgorithm(List<Archer> list, int first, int last, Comparator<Archer> scoringScheme) {
-        // check if first can be divided into 2
-        if (first < last) {
-            int pivotIndex = partition(list, first, last, scoringScheme);
-            quickSortAlgorithm(list, first, pivotIndex - 1, scoringScheme);
-            quickSortAlgorithm(list, pivotIndex + 1, last, scoringScheme);
+    private static class QuickSortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Archer[] archers;
+        private final int first;
+        private final int last;
+        private final int depthLimit;
+        private final Comparator<Archer> scoringScheme;
+
+        private QuickSortTask(Archer[] archers, int first, int last, Comparator<Archer> scoringScheme) {
+            this(archers, first, last, depthLimit(last - first + 1), scoringScheme);
+        }
+
+        private QuickSortTask(Archer[] archers, int first, int last, int depthLimit, Comparator<Archer> scoringScheme) {
+            this.archers = archers;
+            this.first = first;
+            this.last = last;
+            this.depthLimit = depthLimit;
+            this.scoringScheme = scoringScheme;
+        }
 
+        @Override
+        protected void compute() {
+            if (last - first < PARALLEL_THRESHOLD || depthLimit == 0) {
+                quickSortAlgorithm(archers, first, last, depthLimit, scoringScheme);
+                return;
+            }
+            long equal = partition(archers, first, last, scoringScheme);
+            invokeAll(new QuickSortTask(archers, first, lowerBound(equal) - 1, depthLimit - 1, scoringScheme),
+                    new QuickSortTask(archers, upperBound(equal) + 1, last, depthLimit - 1, scoringScheme));
         }
     }
 
-    private static int partition(List<Archer> archers, int first, int last, Comparator<Archer> scoringScheme) {
-        Archer pivot = archers.get(first);
-        int low = first + 1; // Index for forward search, we do +1 because we do not compare pivot with pivot
-        int high = last; // Index for backward search, so end of list
-        while (low < high) {
-            // Search forward from left until low is greater than pivot
-            // because you want all greater elements on the right
-            while (low <= high && scoringScheme.compare(archers.get(low), pivot) <= 0) {
-                low++;
+    /**
+     * @return the number of times a range of the given size may be partitioned before it is sorted with heap sort
+     */
+    private static int depthLimit(int size) {
+        return 2 * (31 - Integer.numberOfLeadingZeros(Math.max(size, 1)));
+    }
+
+    private static void quickSortAlgorithm(Archer[] archers, int first, int last, int depthLimit, Comparator<Archer> scoringScheme) {
+        // the smaller part is sorted recursively and the larger part in the loop, so the recursion stays shallow
+        while (last - first >= INSERTION_SORT_THRESHOLD) {
+            if (depthLimit-- == 0) {
+                heapSort(archers, first, last, scoringScheme);
+                return;
             }
-            // Search backward from right until high is smaller than pivot
-            // because you want all smaller elements on the left
-            while (low <= high && scoringScheme.compare(archers.get(high), pivot) > 0) {
-                high--;
+            long equal = partition(archers, first, last, scoringScheme);
+            int lower = lowerBound(equal);
+            int upper = upperBound(equal);
+            if (lower - first < last - upper) {
+                quickSortAlgorithm(archers, first, lower - 1, depthLimit, scoringScheme);
+                first = upper + 1;
+            } else {
+                quickSortAlgorithm(archers, upper + 1, last, depthLimit, scoringScheme);
+                last = lower - 1;
             }
-            // if both while loop conditions return false we check if low pos is still
-            // lower than high pos
-            if (low < high) {
-                exchange(archers, high, low);
+        }
+        insertionSort(archers, first, last, scoringScheme);
+    }
+
+    /**
+     * Partitions a range of at least three archers in three parts around the median of its first, middle
+     * and last archer: the archers before the pivot, the archers equal to the pivot and the archers after it.
+     * The archers equal to the pivot are in their final place.
+     *
+     * @return the first and the last index of the archers equal to the pivot, packed in a long,
+     * see {@link #lowerBound(long)} and {@link #upperBound(long)}
+     */
+    private static long partition(Archer[] archers, int first, int last, Comparator<Archer> scoringScheme) {
+        int middle = (first + last) >>> 1;
+        if (scoringScheme.compare(archers[middle], archers[first]) < 0) {
+            exchange(archers, middle, first);
+        }
+        if (scoringScheme.compare(archers[last], archers[first]) < 0) {
+            exchange(archers, last, first);
+        }
+        if (scoringScheme.compare(archers[last], archers[middle]) < 0) {
+            exchange(archers, last, middle);
+        }
+        Archer pivot = archers[middle];
+        // archers before lower are before the pivot, from lower up to i equal to it and after upper after it
+        int lower = first;
+        int upper = last;
+        int i = first;
+        while (i <= upper) {
+            int comparison = scoringScheme.compare(archers[i], pivot);
+            if (comparison < 0) {
+                exchange(archers, lower++, i++);
+            } else if (comparison > 0) {
+                exchange(archers, i, upper--);
+            } else {
+                i++;
             }
         }
-        // if low position has exceeded high position, swap the pivot with the high position
-        exchange(archers, archers.indexOf(pivot), high);
-        return high;
+        return (long) lower << 32 | upper;
+    }
+
+    private static int lowerBound(long equal) {
+        return (int) (equal >>> 32);
     }
 
+    private static int upperBound(long equal) {
+        return (int) equal;
+    }
+
+    private static void heapSort(Archer[] archers, int first, int last, Comparator<Archer> scoringScheme) {
+        int size = last - first + 1;
+        for (int parent = size / 2 - 1; parent >= 0; parent--) {
+            siftDown(archers, first, parent, size, scoringScheme);
+        }
+        // the greatest archer of the heap is at first, it is moved behind the heap, which shrinks by one
+        for (int end = size - 1; end > 0; end--) {
+            exchange(archers, first, first + end);
+            siftDown(archers, first, 0, end, scoringScheme);
+        }
+    }
+
+    /**
+     * Moves an archer down a heap of the given size that starts at first, until it is not before its children.
+     */
+    private static void siftDown(Archer[] archers, int first, int parent, int size, Comparator<Archer> scoringScheme) {
+        Archer archer = archers[first + parent];
+        int child;
+        while ((child = 2 * parent + 1) < size) {
+            if (child + 1 < size && scoringScheme.compare(archers[first + child + 1], archers[first + child]) > 0) {
+                child++;
+            }
+            if (scoringScheme.compare(archers[first + child], archer) <= 0) {
+                break;
+            }
+            archers[first + parent] = archers[first + child];
+            parent = child;
+        }
+        archers[first + parent] = archer;
+    }
+
+    private static void insertionSort(Archer[] archers, int first, int last, Comparator<Archer> scoringScheme) {
+        for (int i = first + 1; i <= last; i++) {
+            Archer archer = archers[i];
+            int j = i - 1;
+            while (j >= first && scoringScheme.compare(archers[j], archer) > 0) {
+                archers[j + 1] = archers[j];
+                j--;
+            }
+            archers[j + 1] = archer;
+        }
+    }
 
     /**
      * This method uses the Java collections sort algorithm for sorting the archers.
@@ -82,19 +257,516 @@ public class ChampionSelector {
         return archers;
     }
 
+    /**
+     * The sorted archers of {@link #quickSort(Iterator, Comparator, int)}. The runs it merges are files that stay
+     * open until their last archer has been read, so an Iterator that is not used until the end should be closed,
+     * which closes and deletes all files that are left. Closing it again, or after the last archer, does nothing.
+     */
+    public interface SortedArchers extends Iterator<Archer>, Closeable {
+        /**
+         * Stops merging, after this the Iterator has no next archer.
+         *
+         * @throws UncheckedIOException if a run cannot be closed or deleted
+         */
+        @Override
+        void close();
+    }
+
     /**
      * This method uses quick sort for sorting the archers in such a way that it is able to cope with an Iterator.
+     * At most about a million archers are kept in memory, see {@link #quickSort(Iterator, Comparator, int)}.
+     */
+    public static SortedArchers quickSort(Iterator<Archer> archers, Comparator<Archer> scoringScheme) {
+        return quickSort(archers, scoringScheme, DEFAULT_ARCHERS_IN_MEMORY);
+    }
+
+    /**
+     * This method sorts more archers than fit in memory. The archers are read in runs of at most archersInMemory
+     * archers, every run is sorted on all cores (like {@link #parallelQuickSort(List, Comparator)}) and written to
+     * a temporary file. The Iterator that is returned merges the runs while it is used and only keeps one archer
+     * per run in memory. At most 64 runs are merged at once: while there are more runs, groups of 64 runs are
+     * merged into longer runs first, so the number of open files stays the same however few archers fit in memory.
+     * When all archers fit in one run no file is written at all. A file is deleted as soon as its run has been merged,
+     * the files that are left when the Iterator is not used until the end are deleted when it is closed.
+     * <p>
+     * When all archers fit in one run the Iterator returns the archers themselves, otherwise it returns copies that
+     * are read back from the files: they have the ID, names and scores of the archers, but not the scores per round.
+     *
+     * @param archersInMemory the maximum number of archers in memory while the runs are sorted
+     * @throws UncheckedIOException if a run cannot be written or read
+     */
+    public static SortedArchers quickSort(Iterator<Archer> archers, Comparator<Archer> scoringScheme, int archersInMemory) {
+        if (archersInMemory < 1) {
+            throw new IllegalArgumentException("At least one archer should fit in memory");
+        }
+        List<Path> runFiles = new ArrayList<>();
+        try {
+            Archer[] run = new Archer[Math.min(archersInMemory, 1 << 10)];
+            do {
+                int size = 0;
+                while (size < archersInMemory && archers.hasNext()) {
+                    if (size == run.length) {
+                        run = Arrays.copyOf(run, (int) Math.min(archersInMemory, 2L * run.length));
+                    }
+                    run[size++] = archers.next();
+                }
+                ForkJoinPool.commonPool().invoke(new QuickSortTask(run, 0, size - 1, scoringScheme));
+                if (runFiles.isEmpty() && !archers.hasNext()) {
+                    return new InMemoryArchers(Arrays.asList(run).subList(0, size).iterator());
+                }
+                runFiles.add(writeRun(run, size));
+            } while (archers.hasNext());
+            while (runFiles.size() > MAX_FAN_IN) {
+                runFiles = mergeRuns(runFiles, scoringScheme);
+            }
+            return new MergingIterator(runFiles, scoringScheme);
+        } catch (IOException e) {
+            for (Path runFile : runFiles) {
+                runFile.toFile().delete();
+            }
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Path writeRun(Archer[] run, int size) throws IOException {
+        Path runFile = createRunFile();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runFile), RUN_BUFFER_SIZE))) {
+            out.writeLong(size);
+            for (int i = 0; i < size; i++) {
+                run[i].writeTo(out);
+            }
+        }
+        return runFile;
+    }
+
+    /**
+     * Merges every group of {@link #MAX_FAN_IN} runs into one run, the order of the groups is kept
+     * so equal archers stay in the order of their runs.
+     *
+     * @return the merged runs, the files of the given runs have been deleted
+     */
+    private static List<Path> mergeRuns(List<Path> runFiles, Comparator<Archer> scoringScheme) throws IOException {
+        List<Path> mergedFiles = new ArrayList<>();
+        try {
+            for (int from = 0; from < runFiles.size(); from += MAX_FAN_IN) {
+                Path mergedFile = createRunFile();
+                mergedFiles.add(mergedFile);
+                MergingIterator runs = new MergingIterator(
+                        runFiles.subList(from, Math.min(from + MAX_FAN_IN, runFiles.size())), scoringScheme);
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(mergedFile), RUN_BUFFER_SIZE))) {
+                    out.writeLong(runs.remaining);
+                    while (runs.hasNext()) {
+                        runs.take().writeTo(out);
+                    }
+                } finally {
+                    // when writing failed, the runs that have not been merged yet are still open
+                    runs.closeRuns();
+                }
+            }
+        } catch (IOException e) {
+            for (Path mergedFile : mergedFiles) {
+                mergedFile.toFile().delete();
+            }
+            throw e;
+        }
+        return mergedFiles;
+    }
+
+    private static Path createRunFile() throws IOException {
+        Path runFile = Files.createTempFile("archers", ".run");
+        // in case the Iterator is neither used until the end nor closed
+        runFile.toFile().deleteOnExit();
+        return runFile;
+    }
+
+    /**
+     * A sorted run in a temporary file, of which the next archer has been read.
+     */
+    private static class Run {
+        private final Path file;
+        private final int number;
+        private final DataInputStream in;
+        private long remaining;
+        private Archer next;
+
+        private Run(Path file, int number) throws IOException {
+            this.file = file;
+            this.number = number;
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), RUN_BUFFER_SIZE));
+            try {
+                remaining = in.readLong();
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Reads the next archer of this run, the file is closed and deleted after the last archer.
+         *
+         * @return false if all archers of this run have been read
+         */
+        private boolean advance() throws IOException {
+            if (remaining == 0) {
+                close();
+                return false;
+            }
+            next = Archer.readFrom(in);
+            remaining--;
+            return true;
+        }
+
+        private void close() throws IOException {
+            in.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * The archers of a sort that fitted in one run, there is nothing to close.
+     */
+    private static class InMemoryArchers implements SortedArchers {
+        private final Iterator<Archer> archers;
+        private boolean closed;
+
+        private InMemoryArchers(Iterator<Archer> archers) {
+            this.archers = archers;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !closed && archers.hasNext();
+        }
+
+        @Override
+        public Archer next() {
+            if (closed) {
+                throw new NoSuchElementException();
+            }
+            return archers.next();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * Merges sorted runs, the run with the best next archer is kept on top of a priority queue.
+     * Of equal archers the one from the earliest run comes first.
+     */
+    private static class MergingIterator implements SortedArchers {
+        private final PriorityQueue<Run> runs;
+        // the number of archers that have not been returned yet
+        private long remaining;
+
+        /**
+         * Opens all runs, when one of them cannot be opened the runs that have been opened are closed again.
+         */
+        private MergingIterator(List<Path> runFiles, Comparator<Archer> scoringScheme) throws IOException {
+            runs = new PriorityQueue<>(runFiles.size(), (one, two) -> {
+                int compared = scoringScheme.compare(one.next, two.next);
+                return compared != 0 ? compared : Integer.compare(one.number, two.number);
+            });
+            try {
+                for (int i = 0; i < runFiles.size(); i++) {
+                    Run run = new Run(runFiles.get(i), i);
+                    remaining += run.remaining;
+                    try {
+                        if (run.advance()) {
+                            runs.add(run);
+                        }
+                    } catch (IOException e) {
+                        run.close();
+                        throw e;
+                    }
+                }
+            } catch (IOException e) {
+                try {
+                    closeRuns();
+                } catch (IOException closeFailure) {
+                    e.addSuppressed(closeFailure);
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !runs.isEmpty();
+        }
+
+        @Override
+        public Archer next() {
+            if (runs.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                return take();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private Archer take() throws IOException {
+            Run run = runs.poll();
+            Archer archer = run.next;
+            try {
+                if (run.advance()) {
+                    runs.add(run);
+                }
+            } catch (IOException e) {
+                run.close();
+                throw e;
+            }
+            remaining--;
+            return archer;
+        }
+
+        @Override
+        public void close() {
+            try {
+                closeRuns();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Closes and deletes the runs that have not been merged until the end, the runs that have are closed already.
+         */
+        private void closeRuns() throws IOException {
+            IOException failure = null;
+            while (!runs.isEmpty()) {
+                try {
+                    runs.poll().close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * This method sorts the archers by the {@link #RANKING} without calling a Comparator. The scores of every
+     * archer are packed in a long once and the longs are sorted, which only compares numbers in an array.
+     * The IDs are sorted first, so the key of an archer can hold the rank of its ID instead of its ID,
+     * and that rank leads back to the archer after sorting. The archers are written back to the list once.
+     * When the scores are too far apart to pack, the archers are sorted with the RANKING instead.
+     */
+    public static List<Archer> keySort(List<Archer> archers) {
+        Archer[] snapshot = archers.toArray(new Archer[0]);
+        int n = snapshot.length;
+        int minTotal = Integer.MAX_VALUE;
+        int maxTotal = Integer.MIN_VALUE;
+        int minWeight = Integer.MAX_VALUE;
+        int maxWeight = Integer.MIN_VALUE;
+        long[] idOrder = new long[n];
+        for (int i = 0; i < n; i++) {
+            Archer archer = snapshot[i];
+            minTotal = Math.min(minTotal, archer.getTotalScore());
+            maxTotal = Math.max(maxTotal, archer.getTotalScore());
+            minWeight = Math.min(minWeight, archer.getWeightScore());
+            maxWeight = Math.max(maxWeight, archer.getWeightScore());
+            idOrder[i] = (long) archer.getId() << 32 | i;
+        }
+        long weights = (long) maxWeight - minWeight + 1;
+        if (n < 2 || ((long) maxTotal - minTotal + 1) * weights > Integer.MAX_VALUE) {
+            return collectionSort(archers, RANKING);
+        }
+        Arrays.parallelSort(idOrder);
+
+        // the score part of a key is smaller for better scores, the low 32 bits are the rank of the ID
+        long[] keys = new long[n];
+        for (int rank = 0; rank < n; rank++) {
+            Archer archer = snapshot[(int) idOrder[rank]];
+            long score = (maxTotal - archer.getTotalScore()) * weights + (maxWeight - archer.getWeightScore());
+            keys[rank] = score << 32 | rank;
+        }
+        Arrays.parallelSort(keys);
+
+        Archer[] sorted = new Archer[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = snapshot[(int) idOrder[(int) keys[i]]];
+        }
+        writeBack(archers, sorted);
+        return archers;
+    }
+
+    /**
+     * This method sorts the archers by the {@link #RANKING} in linear time, because the scores are bounded
+     * it does not compare archers at all. It is a radix sort of stable counting sort passes, the least
+     * significant part first: the lower and higher 16 bits of the ID (one pass when the IDs are less than
+     * 65536 apart), then the weight score and then the total score. A pass divides the archers in chunks,
+     * counts the buckets of every chunk in parallel, and then moves the archers of every chunk in parallel
+     * to the places the counts give them. The archers are written back to the list once.
+     * When the scores are too far apart for the buckets, the archers are sorted with the RANKING instead.
+     */
+    public static List<Archer> radixSort(List<Archer> archers) {
+        Archer[] from = archers.toArray(new Archer[0]);
+        int minTotal = Integer.MAX_VALUE;
+        int maxTotal = Integer.MIN_VALUE;
+        int minWeight = Integer.MAX_VALUE;
+        int maxWeight = Integer.MIN_VALUE;
+        int minId = Integer.MAX_VALUE;
+        int maxId = Integer.MIN_VALUE;
+        for (Archer archer : from) {
+            minTotal = Math.min(minTotal, archer.getTotalScore());
+            maxTotal = Math.max(maxTotal, archer.getTotalScore());
+            minWeight = Math.min(minWeight, archer.getWeightScore());
+            maxWeight = Math.max(maxWeight, archer.getWeightScore());
+            minId = Math.min(minId, archer.getId());
+            maxId = Math.max(maxId, archer.getId());
+        }
+        if (from.length < 2) {
+            return archers;
+        } else if ((long) maxTotal - minTotal >= MAX_BUCKETS || (long) maxWeight - minWeight >= MAX_BUCKETS) {
+            return collectionSort(archers, RANKING);
+        }
+        Archer[] to = new Archer[from.length];
+        int lowestId = minId;
+        int highestTotal = maxTotal;
+        int highestWeight = maxWeight;
+        countingSortPass(from, to, MAX_BUCKETS, archer -> (archer.getId() - lowestId) & 0xFFFF);
+        Archer[] swap = from;
+        from = to;
+        to = swap;
+        if ((long) maxId - minId >= MAX_BUCKETS) {
+            countingSortPass(from, to, MAX_BUCKETS, archer -> (archer.getId() - lowestId) >>> 16);
+            swap = from;
+            from = to;
+            to = swap;
+        }
+        // the highest scores get the first buckets
+        countingSortPass(from, to, maxWeight - minWeight + 1, archer -> highestWeight - archer.getWeightScore());
+        countingSortPass(to, from, maxTotal - minTotal + 1, archer -> highestTotal - archer.getTotalScore());
+        writeBack(archers, from);
+        return archers;
+    }
+
+    /**
+     * Moves the archers to the order of their buckets, archers in the same bucket keep their order.
+     */
+    private static void countingSortPass(Archer[] from, Archer[] to, int buckets, ToIntFunction<Archer> bucketOf) {
+        int n = from.length;
+        int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), n / MIN_ARCHERS_PER_CHUNK));
+        int[][] counts = new int[chunks][];
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            int[] count = new int[buckets];
+            for (int i = chunkStart(chunk, chunks, n); i < chunkStart(chunk + 1, chunks, n); i++) {
+                count[bucketOf.applyAsInt(from[i])]++;
+            }
+            counts[chunk] = count;
+        });
+        // a chunk puts its archers of a bucket after those of the chunks before it, that keeps the pass stable
+        int position = 0;
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            for (int[] count : counts) {
+                int archersInBucket = count[bucket];
+                count[bucket] = position;
+                position += archersInBucket;
+            }
+        }
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            int[] next = counts[chunk];
+            for (int i = chunkStart(chunk, chunks, n); i < chunkStart(chunk + 1, chunks, n); i++) {
+                to[next[bucketOf.applyAsInt(from[i])]++] = from[i];
+            }
+        });
+    }
+
+    private static int chunkStart(int chunk, int chunks, int n) {
+        return (int) ((long) n * chunk / chunks);
+    }
+
+    /**
+     * This method selects the best k archers without sorting all archers. It keeps the best k archers seen so far
+     * in a heap with the worst of them on top, so every archer costs at most O(log k).
      *
-     * <b>THIS METHOD IS OPTIONAL</b>
+     * @param k the number of archers to select
+     * @return the best k archers, or all archers if there are fewer, sorted with the best archer first
+     */
+    public static List<Archer> topK(Iterable<Archer> archers, int k, Comparator<Archer> scoringScheme) {
+        TopK topK = new TopK(k, scoringScheme);
+        for (Archer archer : archers) {
+            topK.offer(archer);
+        }
+        return topK.toList();
+    }
+
+    /**
+     * This method selects the best k archers like {@link #topK(Iterable, int, Comparator)}, but on all cores.
+     * The archers are divided in shards by a parallel stream, every shard selects its own best k archers
+     * and the results of the shards are merged into the best k archers of all.
      */
-    public static Iterator<Archer> quickSort(Iterator<Archer> archers, Comparator<Archer> scoringScheme) {
-        return null;
+    public static List<Archer> parallelTopK(Collection<Archer> archers, int k, Comparator<Archer> scoringScheme) {
+        return archers.parallelStream().collect(Collector.of(
+                () -> new TopK(k, scoringScheme), TopK::offer, TopK::merge, TopK::toList));
     }
 
-    private static void exchange(List<Archer> archers, int i, int j) {
-        Archer archer = archers.get(i);
-        archers.set(i, archers.get(j));
-        archers.set(j, archer);
+    /**
+     * The best k archers seen so far, the worst of them is on top of the heap.
+     */
+    private static class TopK {
+        private final int k;
+        private final Comparator<Archer> scoringScheme;
+        private final PriorityQueue<Archer> heap;
+
+        private TopK(int k, Comparator<Archer> scoringScheme) {
+            if (k < 0) {
+                throw new IllegalArgumentException("The number of archers to select cannot be negative");
+            }
+            this.k = k;
+            this.scoringScheme = scoringScheme;
+            heap = new PriorityQueue<>(Math.min(k, 1 << 16) + 1, scoringScheme.reversed());
+        }
+
+        private void offer(Archer archer) {
+            if (heap.size() < k) {
+                heap.add(archer);
+            } else if (k > 0 && scoringScheme.compare(archer, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(archer);
+            }
+        }
+
+        private TopK merge(TopK other) {
+            for (Archer archer : other.heap) {
+                offer(archer);
+            }
+            return this;
+        }
+
+        private List<Archer> toList() {
+            Archer[] best = heap.toArray(new Archer[0]);
+            Arrays.sort(best, scoringScheme);
+            return new ArrayList<>(Arrays.asList(best));
+        }
+    }
+
+    private static void exchange(Archer[] archers, int i, int j) {
+        Archer archer = archers[i];
+        archers[i] = archers[j];
+        archers[j] = archer;
+    }
+
+    /**
+     * Replaces the archers in the list by the sorted archers, with one pass over the list.
+     */
+    private static void writeBack(List<Archer> archers, Archer[] sorted) {
+        ListIterator<Archer> iterator = archers.listIterator();
+        for (Archer archer : sorted) {
+            iterator.next();
+            iterator.set(archer);
+        }
     }
 
 }
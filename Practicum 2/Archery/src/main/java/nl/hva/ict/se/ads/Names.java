@@ -13,6 +13,20 @@ public class Names {
         return surnames[randomizer.nextInt(surnames.length)];
     }
 
+    /**
+     * Picks a first name with the given random generator instead of the shared one.
+     */
+    static String nextFirstName(Random random) {
+        return firstNames[random.nextInt(firstNames.length)];
+    }
+
+    /**
+     * Picks a surname with the given random generator instead of the shared one.
+     */
+    static String nextSurname(Random random) {
+        return surnames[random.nextInt(surnames.length)];
+    }
+
     private static String[] firstNames = {
             "James", "Mary",
             "John", "Patricia",
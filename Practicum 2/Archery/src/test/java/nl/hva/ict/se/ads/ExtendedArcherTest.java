@@ -1,7 +1,69 @@
 package nl.hva.ict.se.ads;
 
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.stream.StreamSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
 /**
  * Place all your own tests for Archer in this class. Tests in any other class will be ignored!
  */
 public class ExtendedArcherTest extends ArcherTest {
+
+    @Test
+    public void iteratorCreatesArchersOnlyWhenAsked() {
+        // a list of this many archers would never fit in memory
+        Iterator<Archer> archerIterator = Archer.generateArchers(Long.MAX_VALUE);
+        Archer firstArcher = archerIterator.next();
+        Archer secondArcher = archerIterator.next();
+        assertEquals(firstArcher.getId() + 1, secondArcher.getId());
+        assertTrue(archerIterator.hasNext());
+
+        Iterator<Archer> emptyIterator = Archer.generateArchers(0L);
+        assertFalse(emptyIterator.hasNext());
+        assertThrows(NoSuchElementException.class, emptyIterator::next);
+    }
+
+    @Test
+    public void spliteratorGeneratesArchersInParallel() {
+        int nrOfArchers = 100_001;
+        Spliterator<Archer> spliterator = Archer.generateArchersSpliterator(nrOfArchers);
+        assertEquals(nrOfArchers, spliterator.estimateSize());
+        assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED));
+
+        int[] ids = StreamSupport.stream(spliterator, true)
+                .peek(archer -> {
+                    assertTrue(archer.getTotalScore() >= Archer.MAX_ROUNDS * Archer.MAX_ARROWS);
+                    assertTrue(archer.getTotalScore() <= Archer.MAX_ROUNDS * Archer.MAX_ARROWS * 10);
+                })
+                .mapToInt(Archer::getId)
+                .toArray();
+        assertEquals(nrOfArchers, ids.length);
+        // archers created on different threads still get unique ids
+        assertEquals(nrOfArchers, Arrays.stream(ids).distinct().count());
+    }
+
+    @Test
+    public void archerIsReadBackWithScoresBeyondAShort() throws IOException {
+        Archer archer = Archer.generateArchers(1).get(0);
+        // more rounds or arrows than the defaults give scores that do not fit in a short
+        archer.registerScoreForRound(1, new int[]{40_000, 40_000});
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        archer.writeTo(new DataOutputStream(bytes));
+        Archer read = Archer.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(archer.toString(), read.toString());
+        assertEquals(archer.getTotalScore(), read.getTotalScore());
+        assertEquals(archer.getWeightScore(), read.getWeightScore());
+    }
 }
@@ -3,10 +3,23 @@ package nl.hva.ict.se.ads;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Place all your own tests for ChampionSelector in this class. Tests in any other class will be ignored!
@@ -24,6 +37,187 @@ public class ExtendedChampionSelectorTest extends ChampionSelectorTest {
         assertEquals(sortedArchersCollection, sortedArchersQuick);
     }
 
+    @Test
+    public void checkParallelQuickSort() {
+        for (int nrArchers : new int[]{0, 1, 2, 33, 1000, 100_000}) {
+            List<Archer> unsortedArchers = Archer.generateArchers(nrArchers);
+            List<Archer> sortedArchersCollection = ChampionSelector.collectionSort(new ArrayList<>(unsortedArchers), comparator);
+            // a linked list is written back in one pass as well
+            List<Archer> sortedArchersParallel = ChampionSelector.parallelQuickSort(new LinkedList<>(unsortedArchers), comparator);
+
+            assertEquals(sortedArchersCollection, sortedArchersParallel);
+        }
+    }
+
+    @Test
+    public void checkIteratorQuickSortWithRuns() {
+        List<Archer> unsortedArchers = Archer.generateArchers(10_000);
+        List<String> sortedArchersCollection = toStrings(
+                ChampionSelector.collectionSort(new ArrayList<>(unsortedArchers), comparator).iterator());
+
+        // ten runs are written to files and merged, the archers read back from the files keep their ids and scores
+        assertEquals(sortedArchersCollection, toStrings(ChampionSelector.quickSort(unsortedArchers.iterator(), comparator, 1000)));
+        assertEquals(sortedArchersCollection, toStrings(ChampionSelector.quickSort(unsortedArchers.iterator(), comparator, 9999)));
+        assertEquals(sortedArchersCollection, toStrings(ChampionSelector.quickSort(unsortedArchers.iterator(), comparator)));
+        // more runs than are merged at once are merged in passes, in one or two
+        assertEquals(sortedArchersCollection, toStrings(ChampionSelector.quickSort(unsortedArchers.iterator(), comparator, 100)));
+        assertEquals(sortedArchersCollection, toStrings(ChampionSelector.quickSort(unsortedArchers.iterator(), comparator, 1)));
+        List<Archer> threeArchers = unsortedArchers.subList(0, 3);
+        assertEquals(toStrings(ChampionSelector.collectionSort(new ArrayList<>(threeArchers), comparator).iterator()),
+                toStrings(ChampionSelector.quickSort(threeArchers.iterator(), comparator, 1)));
+        assertFalse(ChampionSelector.quickSort(Collections.emptyIterator(), comparator, 1).hasNext());
+        assertThrows(IllegalArgumentException.class, () -> ChampionSelector.quickSort(unsortedArchers.iterator(), comparator, 0));
+    }
+
+    @Test
+    public void checkIteratorQuickSortClosedEarly() throws IOException {
+        List<Archer> unsortedArchers = Archer.generateArchers(10_000);
+        long runFilesBefore = countRunFiles();
+
+        // a hundred runs are merged into two longer runs first, their files stay open while the best archers are read
+        ChampionSelector.SortedArchers sortedArchers = ChampionSelector.quickSort(unsortedArchers.iterator(), comparator, 100);
+        assertEquals(ChampionSelector.collectionSort(new ArrayList<>(unsortedArchers), comparator).get(0).toString(),
+                sortedArchers.next().toString());
+        assertTrue(countRunFiles() > runFilesBefore);
+        sortedArchers.close();
+        assertEquals(runFilesBefore, countRunFiles());
+        assertFalse(sortedArchers.hasNext());
+        sortedArchers.close();
+
+        // archers that fit in one run are the archers themselves, runs read back from files give copies
+        try (ChampionSelector.SortedArchers inMemory = ChampionSelector.quickSort(unsortedArchers.iterator(), comparator)) {
+            assertTrue(unsortedArchers.contains(inMemory.next()));
+        }
+        try (ChampionSelector.SortedArchers spilled = ChampionSelector.quickSort(unsortedArchers.iterator(), comparator, 1000)) {
+            assertFalse(unsortedArchers.contains(spilled.next()));
+        }
+        assertEquals(runFilesBefore, countRunFiles());
+    }
+
+    private static long countRunFiles() throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(file -> file.getFileName().toString().matches("archers.*\\.run")).count();
+        }
+    }
+
+    private static List<String> toStrings(Iterator<Archer> archers) {
+        List<String> result = new ArrayList<>();
+        archers.forEachRemaining(archer -> result.add(archer.toString()));
+        return result;
+    }
+
+    @Test
+    public void checkKeySort() {
+        for (int nrArchers : new int[]{0, 1, 2, 1000, 200_000}) {
+            List<Archer> unsortedArchers = Archer.generateArchers(nrArchers);
+            List<Archer> sortedArchersCollection = ChampionSelector.collectionSort(new ArrayList<>(unsortedArchers), ChampionSelector.RANKING);
+            List<Archer> sortedArchersKeys = ChampionSelector.keySort(new LinkedList<>(unsortedArchers));
+
+            assertEquals(sortedArchersCollection, sortedArchersKeys);
+        }
+        // beginners can score zero, so both scores have a wider range
+        List<Archer> beginners = Archer.generateArchers(500);
+        Collections.reverse(beginners);
+        assertEquals(ChampionSelector.collectionSort(new ArrayList<>(beginners), ChampionSelector.RANKING),
+                ChampionSelector.keySort(beginners));
+    }
+
+    @Test
+    public void checkRadixSort() {
+        // with 200,000 archers the IDs are too far apart for one pass
+        for (int nrArchers : new int[]{0, 1, 2, 1000, 200_000}) {
+            List<Archer> unsortedArchers = Archer.generateArchers(nrArchers);
+            Collections.shuffle(unsortedArchers);
+            List<Archer> sortedArchersCollection = ChampionSelector.collectionSort(new ArrayList<>(unsortedArchers), ChampionSelector.RANKING);
+            List<Archer> sortedArchersRadix = ChampionSelector.radixSort(new ArrayList<>(unsortedArchers));
+
+            assertEquals(sortedArchersCollection, sortedArchersRadix);
+        }
+    }
+
+    @Test
+    public void checkTopK() {
+        List<Archer> archers = Archer.generateArchers(50_000);
+        List<Archer> sortedArchers = ChampionSelector.collectionSort(new ArrayList<>(archers), comparator);
+
+        assertEquals(sortedArchers.subList(0, 10), ChampionSelector.topK(archers, 10, comparator));
+        assertEquals(sortedArchers.subList(0, 100), ChampionSelector.parallelTopK(archers, 100, comparator));
+        assertEquals(sortedArchers.subList(0, 1), ChampionSelector.parallelTopK(archers, 1, comparator));
+        assertEquals(sortedArchers, ChampionSelector.topK(archers, 60_000, comparator));
+        assertEquals(0, ChampionSelector.topK(archers, 0, comparator).size());
+        assertEquals(0, ChampionSelector.parallelTopK(new ArrayList<>(), 10, comparator).size());
+        assertThrows(IllegalArgumentException.class, () -> ChampionSelector.topK(archers, -1, comparator));
+    }
+
+    @Test
+    public void checkQuickSortAdversarialInputs() {
+        int nrArchers = 100_000;
+        List<Archer> sortedArchers = ChampionSelector.collectionSort(Archer.generateArchers(nrArchers), ChampionSelector.RANKING);
+        List<Archer> reversedArchers = new ArrayList<>(sortedArchers);
+        Collections.reverse(reversedArchers);
+        // ascending up to the middle and descending after it
+        List<Archer> organPipe = new ArrayList<>(sortedArchers.subList(0, nrArchers / 2));
+        for (int i = nrArchers - 1; i >= nrArchers / 2; i--) {
+            organPipe.add(sortedArchers.get(i));
+        }
+
+        // a first element pivot went n levels deep on these, so they would overflow the stack
+        for (List<Archer> archers : List.of(sortedArchers, reversedArchers, organPipe)) {
+            assertEquals(sortedArchers, ChampionSelector.quickSort(new ArrayList<>(archers), ChampionSelector.RANKING));
+            assertEquals(sortedArchers, ChampionSelector.parallelQuickSort(new ArrayList<>(archers), ChampionSelector.RANKING));
+        }
+
+        // only a few hundred different total scores, and all archers equal
+        Comparator<Archer> byTotalScore = Comparator.comparingInt(Archer::getTotalScore);
+        List<Archer> unsortedArchers = Archer.generateArchers(nrArchers);
+        assertEquals(totalScores(ChampionSelector.collectionSort(new ArrayList<>(unsortedArchers), byTotalScore)),
+                totalScores(ChampionSelector.quickSort(new ArrayList<>(unsortedArchers), byTotalScore)));
+        assertEquals(unsortedArchers.size(), ChampionSelector.quickSort(new ArrayList<>(unsortedArchers), (a, b) -> 0).size());
+    }
+
+    @Test
+    public void checkQuickSortAgainstAdversary() {
+        int nrArchers = 20_000;
+        List<Archer> archers = Archer.generateArchers(nrArchers);
+        int firstId = archers.get(0).getId();
+        // McIlroy's adversary decides the order of the archers while they are compared, so every pivot is bad
+        int[] value = new int[nrArchers];
+        Arrays.fill(value, nrArchers);
+        int[] state = new int[2];
+        long[] comparisons = new long[1];
+        Comparator<Archer> adversary = (a, b) -> {
+            comparisons[0]++;
+            int x = a.getId() - firstId;
+            int y = b.getId() - firstId;
+            if (value[x] == nrArchers && value[y] == nrArchers) {
+                value[x == state[1] ? x : y] = state[0]++;
+            }
+            if (value[x] == nrArchers) {
+                state[1] = x;
+            } else if (value[y] == nrArchers) {
+                state[1] = y;
+            }
+            return Integer.compare(value[x], value[y]);
+        };
+
+        ChampionSelector.quickSort(archers, adversary);
+
+        // without falling back to heap sort this takes about n * n / 4 comparisons
+        long log = 32 - Integer.numberOfLeadingZeros(nrArchers);
+        assertTrue(comparisons[0] < 10 * nrArchers * log, comparisons[0] + " comparisons");
+        for (int i = 1; i < nrArchers; i++) {
+            assertTrue(value[archers.get(i - 1).getId() - firstId] <= value[archers.get(i).getId() - firstId]);
+        }
+    }
+
+    private static List<Integer> totalScores(List<Archer> archers) {
+        List<Integer> result = new ArrayList<>();
+        for (Archer archer : archers) {
+            result.add(archer.getTotalScore());
+        }
+        return result;
+    }
+
     @Test
     public void testEfficiencyAlgorithms() {
         int nrArchers = 100;